@@ -6,8 +6,20 @@ import java.util.*;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The groups are aggregated in memory until there are more than the budget
+ * of groups.  The state of the groups held so far is then written to
+ * PARTITIONS SpillFiles by the hash of the group field, see
+ * {@link Aggregator#partials}, and the rest of the child follows it there,
+ * a row at a time.  Each partition is then aggregated on its own, and
+ * partitioned again, with a hash seeded differently, if it still has too
+ * many groups.  A partition that does not get smaller, which happens when
+ * its groups all hash alike, or that has been partitioned MAX_LEVEL times,
+ * is aggregated in memory whatever its size.  A group is in exactly one
+ * partition, so each is aggregated whole; the groups are returned in order
+ * of group field within a partition, but not across partitions.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -17,6 +29,33 @@ public class Aggregate extends Operator {
     private final int gfield;
     private final Aggregator.Op aop;
     private DbIterator it;
+    private transient TupleBatch out = null;
+
+    /** The default budget of groups held in memory by an aggregate. */
+    public final static int MAX_GROUPS = 100000;
+    public final static int PARTITIONS = 16;
+    /** The most times a group is partitioned. */
+    public final static int MAX_LEVEL = 8;
+
+    private final int maxGroups;
+    // the partitions left to aggregate, the last one written first; null
+    // while the groups fit
+    transient private ArrayDeque<Partition> partitions = null;
+    transient private TupleDesc partialDesc = null; // of the spilled group states
+
+    /** Spilled group states, see Aggregator#partials. */
+    private static class Partition {
+        final SpillFile file;
+        final int level; // how many times its groups have been partitioned
+        final long parentSize; // the size of the partition it was split from
+
+        Partition(SpillFile file, int level, long parentSize) {
+            this.file = file;
+            this.level = level;
+            this.parentSize = parentSize;
+        }
+    }
+
     /**
      * Constructor.
      * 
@@ -36,7 +75,22 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-	// some code goes here
+        this(child, afield, gfield, aop, MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for an aggregate that holds at most maxGroups groups in
+     * memory, partitioning its input to disk when there are more.
+     *
+     * @param maxGroups
+     *            The budget of groups held in memory
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop,
+            int maxGroups) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("an aggregate needs a budget of at least one group");
+        }
+        this.maxGroups = maxGroups;
     	this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
@@ -97,26 +151,198 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
 	// some code goes here
     	child.open();
+        aggr = newAggregator();
+        SpillFile[] parts = null;
+        try {
+            if (child instanceof BatchIterator) {
+                // a batch child is merged a batch at a time
+                TupleBatch batch;
+                while ((batch = ((BatchIterator) child).nextBatch()) != null) {
+                    if (parts != null) {
+                        for (int r = 0; r < batch.size(); r++) {
+                            spillRow(parts, batch.getTuple(r));
+                        }
+                        continue;
+                    }
+                    aggr.mergeBatchIntoGroup(batch);
+                    if (aggr.numGroups() > maxGroups) {
+                        parts = spill(0);
+                    }
+                }
+            } else {
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    if (parts != null) {
+                        spillRow(parts, t);
+                        continue;
+                    }
+                    aggr.mergeTupleIntoGroup(t);
+                    if (aggr.numGroups() > maxGroups) {
+                        parts = spill(0);
+                    }
+                }
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            // the partitions are not queued yet, so close would miss them
+            delete(parts);
+            throw e;
+        }
+        child.close();
+
+        super.open();
+        // compute since
+        if (parts == null) {
+            it = aggr.iterator();
+            it.open();
+        } else {
+            partitions = new ArrayDeque<Partition>();
+            push(parts, 0, Long.MAX_VALUE);
+        }
+    }
+
+    private Aggregator newAggregator() {
         Type gbt = null;
         if (gfield != Aggregator.NO_GROUPING) {
             gbt = child.getTupleDesc().getFieldType(gfield);
         }
 
         if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
-            aggr = new IntegerAggregator(gfield, gbt, afield, aop);
+            return new IntegerAggregator(gfield, gbt, afield, aop);
         } else {
-            aggr = new StringAggregator(gfield, gbt, afield, aop);
+            return new StringAggregator(gfield, gbt, afield, aop);
         }
+    }
 
-        while (child.hasNext()) {
-            aggr.mergeTupleIntoGroup(child.next());
+    /**
+     * @return the partition of a group at the specified level: the group
+     *         value's hash, seeded by the level and then mixed, so groups
+     *         that share a partition at one level are split at the next
+     */
+    static int partitionOf(Field key, int level) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        // the finalizer of MurmurHash3
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & (PARTITIONS - 1);
+    }
+
+    /**
+     * Writes the state of the groups held in memory to new partitions by
+     * the hash of their group value, and drops them.
+     *
+     * @param level the level of the new partitions
+     */
+    private SpillFile[] spill(int level) throws DbException, TransactionAbortedException {
+        partialDesc = Aggregator.partialDesc(child.getTupleDesc().getFieldType(gfield));
+        SpillFile[] parts = new SpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            parts[i] = new SpillFile(partialDesc);
         }
-        child.close();
+        try {
+            DbIterator groups = aggr.partials();
+            groups.open();
+            while (groups.hasNext()) {
+                Tuple t = groups.next();
+                parts[partitionOf(t.getField(0), level)].add(t);
+            }
+            groups.close();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            delete(parts);
+            throw e;
+        }
+        aggr = null;
+        return parts;
+    }
 
-        super.open();
-        // compute since
-        it = aggr.iterator();
-        it.open();
+    /** Deletes partitions that were not queued, if there are any. */
+    private static void delete(SpillFile[] parts) {
+        if (parts != null) {
+            for (SpillFile f : parts) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Writes a child row to its partition, as the state of a group of one row. */
+    private void spillRow(SpillFile[] parts, Tuple row) throws DbException {
+        Field key = row.getField(gfield);
+        if (key instanceof StringField) {
+            // spilled strings are written at their full length
+            key = new StringField(((StringField) key).getValue(), Type.STRING_LEN);
+        }
+        int v = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE ?
+                row.getInt(afield) : 0;
+        Tuple t = new Tuple(partialDesc);
+        t.setField(0, key);
+        t.setField(1, new IntField(v < 0 ? -1 : 0));
+        t.setField(2, new IntField(v));
+        t.setField(3, new IntField(1));
+        parts[partitionOf(key, 0)].add(t);
+    }
+
+    /** Queues the non-empty partitions, and deletes the others. */
+    private void push(SpillFile[] parts, int level, long parentSize) {
+        for (int i = PARTITIONS - 1; i >= 0; i--) {
+            if (parts[i].size() > 0) {
+                partitions.push(new Partition(parts[i], level, parentSize));
+            } else {
+                parts[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Aggregates the next partition, or, if it has too many groups,
+     * partitions it again and queues the new partitions instead.
+     */
+    private void nextPartition() throws DbException, TransactionAbortedException {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        Partition p = partitions.pop();
+        long size = p.file.size();
+        boolean budgeted = p.level < MAX_LEVEL && size < p.parentSize;
+        aggr = newAggregator();
+        SpillFile[] parts = null;
+        SpillFile.Reader r = p.file.reader();
+        try {
+            Tuple t;
+            while ((t = r.next()) != null) {
+                if (parts != null) {
+                    parts[partitionOf(t.getField(0), p.level + 1)].add(t);
+                    continue;
+                }
+                aggr.mergePartial(t);
+                if (budgeted && aggr.numGroups() > maxGroups) {
+                    parts = spill(p.level + 1);
+                }
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            delete(parts);
+            throw e;
+        } finally {
+            r.close();
+            p.file.delete();
+        }
+        if (parts == null) {
+            it = aggr.iterator();
+            it.open();
+        } else {
+            push(parts, p.level + 1, size);
+        }
+    }
+
+    private void deleteSpills() {
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.file.delete();
+            }
+            partitions = null;
+        }
     }
 
     /**
@@ -128,13 +354,35 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
-    	if (it.hasNext()) {
-            return it.next();
-        } else {
-            return null;
+        while (true) {
+            if (it != null && it.hasNext()) {
+                return it.next();
+            }
+            if (partitions == null || partitions.isEmpty()) {
+                return null;
+            }
+            nextPartition();
         }
     }
 
+    /**
+     * Returns the next batch of aggregate results.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            out = new TupleBatch(getTupleDesc());
+        }
+        if (partitions != null) {
+            out.clear();
+            Tuple t;
+            while (!out.isFull() && (t = fetchNext()) != null) {
+                out.add(t);
+            }
+            return out.size() > 0 ? out : null;
+        }
+        return TupleBatch.next(it, out);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
     	close();
@@ -167,7 +415,11 @@ public class Aggregate extends Operator {
     public void close() {
 	// some code goes here
     	super.close();
-        it.close();
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        deleteSpills();
     }
 
     @Override
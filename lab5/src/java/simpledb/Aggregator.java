@@ -76,10 +76,51 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of a batch into the aggregate, as if each were passed
+     * to {@link #mergeTupleIntoGroup}.
+     *
+     * @param batch the rows, with an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch);
+
+    /**
+     * @return the number of groups merged so far, 1 if there is no grouping
+     */
+    public int numGroups();
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * Create a DbIterator over the running state of every group, as tuples
+     * of {@link #partialDesc}, so the groups can be set aside and merged
+     * into another aggregator over the same fields with
+     * {@link #mergePartial}.  Only for aggregates with grouping.
+     */
+    public DbIterator partials();
+
+    /**
+     * Merge the state of a group, a tuple of {@link #partialDesc}, into the
+     * aggregate.  A tuple with a count of 1 and the value of one row merges
+     * that row.
+     *
+     * @param partial the state of a group, as returned by {@link #partials}
+     */
+    public void mergePartial(Tuple partial);
+
+    /**
+     * Returns the schema of the state of a group: the group value, the high
+     * and low halves of its SUM, MIN or MAX so far, and its number of rows.
+     *
+     * @param gbfieldtype the type of the group by field
+     */
+    static TupleDesc partialDesc(Type gbfieldtype) {
+        return new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE,
+                Type.INT_TYPE, Type.INT_TYPE });
+    }
     
 }
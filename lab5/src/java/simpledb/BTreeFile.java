@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -12,6 +13,9 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * Pages are read and written with positional I/O on a FileChannel that the
+ * BTreeFile opens once and keeps.  A read-mostly index can read its pages
+ * through a memory mapping of the file instead; see {@link #setMemoryMapped}.
  * 
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -25,6 +29,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final DataFileChannel data;
+	private volatile boolean memoryMapped = Boolean.getBoolean(DataFileChannel.MMAP_PROPERTY);
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -39,6 +45,17 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.data = new DataFileChannel(f);
+	}
+
+	/**
+	 * Sets whether readPage builds internal and leaf pages straight from a
+	 * read-only memory mapping of the file.  Meant for read-mostly indexes;
+	 * writes go through the normal path either way.  The default is taken
+	 * from the system property simpledb.file.mmap.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
 	}
 
 	/**
@@ -79,14 +96,18 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
+			if (memoryMapped && id.pgcateg() != BTreePageId.ROOT_PTR) {
+				Page p = readMappedPage(id);
+				if (p != null) {
+					return p;
+				}
+			}
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
+				int retval = data.read(ByteBuffer.wrap(pageBuf), 0);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -99,13 +120,12 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
+				if (id.pageNumber() < 1) {
 					throw new IllegalArgumentException(
 							"Unable to seek to correct place in BTreeFile");
 				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+				int retval = data.read(ByteBuffer.wrap(pageBuf), pageOffset(id));
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BufferPool.getPageSize()) {
@@ -128,14 +148,38 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
+		}
+	}
+
+	/**
+	 * Returns the file offset of a page other than the root pointer page.
+	 */
+	private static long pageOffset(BTreePageId id) {
+		return BTreeRootPtrPage.getPageSize() + (long) (id.pageNumber()-1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Read a page other than the root pointer page from the memory mapping
+	 * of the file.
+	 * 
+	 * @return the page, or null if it lies past the end of the mapping
+	 */
+	private Page readMappedPage(BTreePageId id) throws IOException {
+		ByteBuffer buf = data.map(pageOffset(id), BufferPool.getPageSize());
+		if (buf == null) {
+			return null;
+		}
+		Debug.log(1, "BTreeFile.readPage: mapped page %d", id.pageNumber());
+		if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, buf, keyField);
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, buf, keyField);
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			byte pageBuf[] = new byte[BufferPool.getPageSize()];
+			buf.get(pageBuf);
+			return new BTreeHeaderPage(id, pageBuf);
 		}
 	}
 
@@ -148,16 +192,12 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		byte[] bytes = page.getPageData();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			data.write(ByteBuffer.wrap(bytes), 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			data.write(ByteBuffer.wrap(bytes), pageOffset(id));
 		}
 	}
 	
@@ -1120,10 +1160,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		data.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(newPageId));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -66,25 +67,35 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeInternalPage from the bytes between the position and the limit
+	 * of a buffer, such as a slice of a memory-mapped file, without copying
+	 * them first.  The buffer's position is not changed.
+	 * 
+	 * @see #BTreeInternalPage(BTreePageId, byte[], int)
+	 */
+	public BTreeInternalPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxEntries() + 1;
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = data.duplicate();
 
 		// Read the parent pointer
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.parent = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 		}
 
 		// read the child page category
-		childCategory = (int) dis.readByte();
+		childCategory = (int) buf.get();
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		buf.get(header);
 
 		keys = new Field[numSlots];
 		try{
@@ -93,7 +104,7 @@ public class BTreeInternalPage extends BTreePage {
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
 			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
+				keys[i] = readNextKey(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -102,11 +113,10 @@ public class BTreeInternalPage extends BTreePage {
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
+				children[i] = readNextChild(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
 		setBeforeImage();
 	}
@@ -164,24 +174,22 @@ public class BTreeInternalPage extends BTreePage {
 	/**
 	 * Read keys from the source file.
 	 */
-	private Field readNextKey(DataInputStream dis, int slotId) throws NoSuchElementException {
+	private Field readNextKey(ByteBuffer buf, int slotId) throws NoSuchElementException {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty key");
-				}
+			int len = td.getFieldType(keyField).getLen();
+			if (buf.remaining() < len) {
+				throw new NoSuchElementException("error reading empty key");
 			}
+			buf.position(buf.position() + len);
 			return null;
 		}
 
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = td.getFieldType(keyField).parse(buf);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -193,24 +201,21 @@ public class BTreeInternalPage extends BTreePage {
 	/**
 	 * Read child pointers from the source file.
 	 */
-	private int readNextChild(DataInputStream dis, int slotId) throws NoSuchElementException {
+	private int readNextChild(ByteBuffer buf, int slotId) throws NoSuchElementException {
 		// if associated bit is not set, read forward to the next child pointer, and
 		// return -1.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<INDEX_SIZE; i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty child pointer");
-				}
+			if (buf.remaining() < INDEX_SIZE) {
+				throw new NoSuchElementException("error reading empty child pointer");
 			}
+			buf.position(buf.position() + INDEX_SIZE);
 			return -1;
 		}
 
 		// read child pointer
 		int child = -1;
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			child = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
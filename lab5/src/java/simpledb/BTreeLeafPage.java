@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -62,27 +63,38 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from the bytes between the position and the limit
+	 * of a buffer, such as a slice of a memory-mapped file, without copying
+	 * them first.  The buffer's position is not changed.
+	 * 
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		ByteBuffer buf = data.duplicate();
 
 		// Read the parent and sibling pointers
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.parent = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 		}
 
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.leftSibling = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 		}
 
 		try {
-			Field f = Type.INT_TYPE.parse(dis);
+			Field f = Type.INT_TYPE.parse(buf);
 			this.rightSibling = ((IntField) f).getValue();
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
@@ -90,18 +102,16 @@ public class BTreeLeafPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		buf.get(header);
 
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
 			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+				tuples[i] = readNextTuple(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
 		setBeforeImage();
 	}
@@ -156,17 +166,14 @@ public class BTreeLeafPage extends BTreePage {
 	/**
 	 * Read tuples from the source file.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+	private Tuple readNextTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
 		// if associated bit is not set, read forward to the next tuple, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
+			if (buf.remaining() < td.getSize()) {
+				throw new NoSuchElementException("error reading empty tuple");
 			}
+			buf.position(buf.position() + td.getSize());
 			return null;
 		}
 
@@ -176,7 +183,7 @@ public class BTreeLeafPage extends BTreePage {
 		t.setRecordId(rid);
 		try {
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
+				Field f = td.getFieldType(j).parse(buf);
 				t.setField(j, f);
 			}
 		} catch (java.text.ParseException e) {
@@ -0,0 +1,28 @@
+package simpledb;
+
+/**
+ * BatchIterator is a DbIterator that can also return its tuples a batch at
+ * a time, as column-oriented TupleBatches.  Operators that implement it
+ * process whole batches of their children's rows in tight loops, and only
+ * fall back to the children's next() for children that are not
+ * BatchIterators, see {@link TupleBatch#next}.
+ * <p>
+ * A caller must read an open iterator either through next() and hasNext()
+ * or through nextBatch(), not both, until it is rewound or reopened.
+ *
+ * @see Batcher
+ * @see Unbatcher
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples.  The batch belongs to the iterator,
+     * and is only valid until the next call to nextBatch(), rewind() or
+     * close().
+     *
+     * @return a batch with at least one row, or null if there are no more
+     *         tuples.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Batcher adapts any DbIterator to the batch API: nextBatch() returns its
+ * child's tuples in TupleBatches, and next() returns them unchanged.  Use it
+ * to feed a tuple-at-a-time operator into code that reads batches.
+ *
+ * @see Unbatcher
+ */
+public class Batcher extends Operator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private transient TupleBatch batch = null;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the iterator whose tuples are batched
+     */
+    public Batcher(DbIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return child.hasNext() ? child.next() : null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        return TupleBatch.next(child, batch);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 //import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * BufferPool manages the reading and writing of pages into memory from
  * disk. Access methods call into it to retrieve pages, and it fetches
@@ -33,20 +34,54 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Replacement policy used when none is given and the
+    {@value ReplacementPolicy#POLICY_PROPERTY} property is not set. */
+    public static final String DEFAULT_POLICY = "lru";
+
+    /** Name of the system property giving the number of frames in the
+    private ring of a large sequential scan; 0 turns scan rings off. */
+    public static final String RING_PAGES_PROPERTY = "simpledb.bufferpool.ringpages";
+
+    /** Default number of frames in a scan ring. */
+    public static final int DEFAULT_RING_PAGES = 8;
+
     private int num_pages;
+    private volatile int ringPages;
     private ConcurrentHashMap<PageId, Page> pid2page;
+    // pages a ring loaded that nothing outside the ring has touched since
+    private final ConcurrentHashMap<PageId, BufferRing> ringOwned = new ConcurrentHashMap<>();
+    private final ReplacementPolicy replacementPolicy;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages.  The
+     * replacement policy is taken from the
+     * {@value ReplacementPolicy#POLICY_PROPERTY} system property and
+     * defaults to {@value #DEFAULT_POLICY}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.create(
+                System.getProperty(ReplacementPolicy.POLICY_PROPERTY, DEFAULT_POLICY), numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * according to the specified policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy that chooses eviction victims
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
     	num_pages = numPages;
         pid2page = new ConcurrentHashMap<>(numPages);
         lockManager = LockManager.GetLockManager();
+        replacementPolicy = policy;
+        ringPages = Integer.getInteger(RING_PAGES_PROPERTY, DEFAULT_RING_PAGES);
     	//pageStore = new ConcurrentHashMap<>();
         //head = new LinkedNode(new HeapPageId(-1, -1), null);
         //tail = new LinkedNode(new HeapPageId(-1, -1), null);
@@ -84,6 +119,24 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but if the page has to be read from disk, load it into a frame of the
+     * specified scan ring.  Once the ring is full, the ring's oldest clean
+     * page is dropped to make room, so the scan does not push other pages
+     * out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's private ring, or null to use the shared pool
+     * @see #getScanRing
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
     	 if (pid == null) {
@@ -92,18 +145,91 @@ public class BufferPool {
 
          lockManager.acquireLock(tid, pid, perm);
 
-         if (pid2page.containsKey(pid)) {
-             return pid2page.get(pid);
+         Page cached = pid2page.get(pid);
+         if (cached != null) {
+             hits.incrementAndGet();
+             BufferRing owner = ringOwned.get(pid);
+             if (owner != null && owner != ring) {
+                 // another query wants the page too, so it is no longer
+                 // the ring's to recycle
+                 ringOwned.remove(pid, owner);
+             }
+             replacementPolicy.pageAccessed(pid);
+             return cached;
          } else {
+             misses.incrementAndGet();
              Page page = getPageFile(pid).readPage(pid);
-             if (pid2page.size() == num_pages) {
+             if (ring != null) {
+                 recycleRingFrame(ring);
+             }
+             if (pid2page.size() >= num_pages) {
                  evictPage();
              }
              pid2page.put(pid, page);
+             replacementPolicy.pageAccessed(pid);
+             if (ring != null) {
+                 ring.loaded(pid);
+                 ringOwned.put(pid, ring);
+             }
              return page;
          }
     }
 
+    /**
+     * Drop the page in the ring's next frame from the pool, if the ring is
+     * full and that page is still resident and clean, and no other query
+     * has read it through the pool since the ring loaded it.  A page that
+     * has been shared is left to the replacement policy, and the new page
+     * takes a frame of the pool instead.
+     */
+    private synchronized void recycleRingFrame(BufferRing ring) {
+        PageId old = ring.nextToRecycle();
+        if (old == null || !ringOwned.remove(old, ring)) {
+            return;
+        }
+        Page page = pid2page.get(old);
+        if (page != null && page.isDirty() == null) {
+            discardPage(old);
+        }
+    }
+
+    /**
+     * Returns a private ring for a sequential scan over a file with the
+     * specified number of pages, or null if the scan should go through the
+     * shared pool.  Only scans of files that do not fit in the pool get a
+     * ring; smaller files are left to be cached as a whole.  A ring never
+     * takes more than a quarter of the pool.
+     *
+     * @param filePages the number of pages the scan will read
+     * @return a new ring, or null
+     */
+    public BufferRing getScanRing(int filePages) {
+        int frames = Math.min(ringPages, num_pages / 4);
+        if (frames <= 0 || filePages <= num_pages) {
+            return null;
+        }
+        return new BufferRing(frames);
+    }
+
+    /**
+     * Set the number of frames given to the ring of a large sequential scan.
+     *
+     * @param pages the ring size; 0 makes every scan use the shared pool
+     */
+    public void setScanRingPages(int pages) {
+        ringPages = pages;
+    }
+
+    /** Return the number of getPage calls that found their page resident. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Return the number of getPage calls that had to read their page from disk. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
     private DbFile getPageFile(PageId pid) {
         int table_id = pid.getTableId();
         return Database.getCatalog().getDatabaseFile(table_id);
@@ -144,41 +270,99 @@ public class BufferPool {
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction.  A commit writes the transaction's dirty pages to
+     * disk (FORCE), which is what callers that do not log a COMMIT record
+     * need; {@link Transaction} commits with
+     * {@link #transactionComplete(TransactionId, boolean, boolean)} instead.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
-    	 ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<PageId>> tid2dirtypageIds
-         	= lockManager.getTransactionDirtiedPages();
-
-    	 if (tid2dirtypageIds.containsKey(tid)) {
-    		 for (PageId pid : tid2dirtypageIds.get(tid)) {
-    			 if (commit) {
-    				 flushPage(pid);
-    				 try {
-    					 this.getPage(tid, pid, Permissions.READ_WRITE);
-    				 } catch (Exception e) {
-    				 }
-    			 } else {
-    				 int tableId = pid.getTableId();
-    				 Page page = getDbFileFromDisc(tableId).readPage(pid);
-    				 pid2page.replace(pid, page);
-    				 page.markDirty(false, null);
-    			 }
-    		 }
-    	 }
-    	 lockManager.releasePages(tid);
+        transactionComplete(tid, commit, true);
     }
+
+    /**
+     * Commit or abort a given transaction; release all locks associated to
+     * the transaction.
+     * <p>
+     * On commit every page the transaction locked for writing becomes the
+     * new committed version (its before image is reset), whether it is still
+     * dirty or was flushed while the transaction ran.  With force they are
+     * written to disk as well; without it they stay dirty in the pool and
+     * are written back later, which is only safe if their after images were
+     * logged with {@link #logDirtyPages} before the COMMIT record (NO-FORCE).
+     * <p>
+     * On abort every page the transaction locked for writing is replaced by
+     * its before image, the last committed version, which is also written to
+     * disk since the on-disk copy may be older or may hold the aborted
+     * changes.  Pages stolen from the pool while the transaction ran are
+     * restored from the log by {@link LogFile#rollback}.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param force whether a commit writes the dirty pages to disk
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean force)
+        throws IOException {
+        ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<PageId>> tid2dirtypageIds
+            = lockManager.getTransactionDirtiedPages();
+
+        if (tid2dirtypageIds.containsKey(tid)) {
+            synchronized (this) {
+                for (PageId pid : tid2dirtypageIds.get(tid)) {
+                    Page page = pid2page.get(pid);
+                    if (page == null) {
+                        continue;
+                    }
+                    if (commit) {
+                        if (force && tid.equals(page.isDirty())) {
+                            flushPage(pid);
+                        }
+                        // a page flushed while the transaction ran is clean
+                        // now, but still holds the transaction's changes
+                        page.setBeforeImage();
+                    } else {
+                        // the page may have been changed even if the
+                        // operation failed before marking it dirty
+                        Page before = page.getBeforeImage();
+                        getPageFile(pid).writePage(before);
+                        pid2page.put(pid, before);
+                    }
+                }
+            }
+        }
+        lockManager.releasePages(tid);
+    }
+
+    /**
+     * Write an UPDATE record for every page in the pool dirtied by the
+     * specified transaction, so that it can commit without writing those
+     * pages to disk.  The records are not forced; the COMMIT record that
+     * follows forces them.
+     *
+     * @param tid the committing transaction
+     */
+    public synchronized void logDirtyPages(TransactionId tid) throws IOException {
+        ConcurrentLinkedDeque<PageId> pids = lockManager.getTransactionDirtiedPages().get(tid);
+        if (pids == null) {
+            return;
+        }
+        for (PageId pid : pids) {
+            Page page = pid2page.get(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+            }
+        }
+    }
+
     private void insertPageToBufferPool(Page page) throws DbException {
-        if (pid2page.size() == num_pages) {
+        if (pid2page.size() >= num_pages) {
             evictPage();
         }
         pid2page.put(page.getId(), page);
+        replacementPolicy.pageAccessed(page.getId());
     }
 
     private DbFile getDbFileFromDisc(int tableId) {
@@ -242,9 +426,8 @@ public class BufferPool {
     }
 
     /**
-     * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * Flush all dirty pages to disk.  Each page is logged first, so pages of
+     * running transactions can be undone by {@link LogFile#rollback}.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
@@ -267,10 +450,14 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
     	pid2page.remove(pid);
+    	ringOwned.remove(pid);
+    	replacementPolicy.pageRemoved(pid);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk.  Following the write-ahead rule, an
+     * UPDATE record with the page's before and after images is written and
+     * forced to the log before the page itself is written.
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
@@ -278,7 +465,10 @@ public class BufferPool {
         // not necessary for lab1
     	if (pid2page.containsKey(pid)) {
             Page evictedPage = pid2page.get(pid);
-            if (evictedPage.isDirty() != null) {
+            TransactionId dirtier = evictedPage.isDirty();
+            if (dirtier != null) {
+                long lsn = Database.getLogFile().logWrite(dirtier, evictedPage.getBeforeImage(), evictedPage);
+                Database.getLogFile().flushToLSN(lsn);
                 getPageFile(pid).writePage(evictedPage);
                 evictedPage.markDirty(false, null);
             }
@@ -303,6 +493,12 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the pool's {@link ReplacementPolicy} among the
+     * clean pages if there are any.  Otherwise a dirty page is stolen
+     * (STEAL) if it can be undone: either its transaction has committed, or
+     * it runs as a logged {@link Transaction} and {@link LogFile#rollback}
+     * can restore the page.  Pages of transactions that bypass the log are
+     * never stolen.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
@@ -310,17 +506,24 @@ public class BufferPool {
     	if (pid2page.size() == 0)
             throw new DbException("Evicting page in Empty buffer!");
 
-        PageId evict_pid = null;
-        for (PageId pid : pid2page.keySet()) {
+        PageId evict_pid = replacementPolicy.chooseVictim(pid -> {
             Page page = pid2page.get(pid);
-            if (page != null && page.isDirty() == null) {
-                evict_pid = pid;
-                break;
-            }
+            return page != null && page.isDirty() == null;
+        });
+        if (evict_pid == null) {
+            evict_pid = replacementPolicy.chooseVictim(pid -> {
+                Page page = pid2page.get(pid);
+                if (page == null) {
+                    return false;
+                }
+                TransactionId dirtier = page.isDirty();
+                return dirtier == null || !lockManager.holdsLock(dirtier, pid)
+                        || Database.getLogFile().isLogged(dirtier);
+            });
         }
 
         if (evict_pid == null)
-            throw new DbException("All pages are dirty, No valid page to evict!");
+            throw new DbException("No valid page to evict!");
 
         try {
             flushPage(evict_pid);
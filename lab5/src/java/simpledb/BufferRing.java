@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * BufferRing is a small private set of buffer pool frames used by a large
+ * sequential scan, in the spirit of PostgreSQL's BufferAccessStrategy.
+ * Pages the scan has to read from disk are loaded into the ring's frames;
+ * once the ring is full, the next miss recycles the frame the scan loaded
+ * longest ago instead of asking the replacement policy for a victim.  A
+ * scan over a table much larger than the pool therefore occupies at most
+ * {@link #size()} frames and leaves the rest of the pool, and the working
+ * set of other transactions, alone.
+ * <p>
+ * A ring belongs to a single iterator and is not thread-safe.
+ *
+ * @see BufferPool#getScanRing
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    private final PageId[] frames;
+    private int next;
+
+    /**
+     * @param numFrames the number of frames in the ring
+     */
+    public BufferRing(int numFrames) {
+        if (numFrames < 1)
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        frames = new PageId[numFrames];
+        next = 0;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * @return the page loaded into the frame that will be reused next, or
+     *         null if the ring is not full yet
+     */
+    PageId nextToRecycle() {
+        return frames[next];
+    }
+
+    /**
+     * Record that the specified page was loaded into the next frame of the
+     * ring, and advance.
+     */
+    void loaded(PageId pid) {
+        frames[next] = pid;
+        next = (next + 1) % frames.length;
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement.  Every frame carries a reference bit
+ * that is set on access; the clock hand sweeps the frames, clearing set
+ * bits and stopping at the first evictable frame whose bit is already
+ * clear.  This approximates LRU without reordering a list on every hit.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final HashMap<PageId, Integer> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int used;
+    private int hand;
+
+    /**
+     * @param numPages the number of frames in the buffer pool; the clock
+     *            grows if more pages than that are ever resident
+     */
+    public ClockReplacementPolicy(int numPages) {
+        int n = Math.max(numPages, 1);
+        frames = new PageId[n];
+        referenced = new boolean[n];
+        slotOf = new HashMap<>(n * 2);
+        freeSlots = new ArrayDeque<>();
+        used = 0;
+        hand = 0;
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot == null) {
+            slot = allocateSlot();
+            frames[slot] = pid;
+            slotOf.put(pid, slot);
+        }
+        referenced[slot] = true;
+    }
+
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty())
+            return freeSlots.poll();
+        if (used == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+            referenced = Arrays.copyOf(referenced, referenced.length * 2);
+        }
+        return used++;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            frames[slot] = null;
+            referenced[slot] = false;
+            freeSlots.add(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        if (used == 0)
+            return null;
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * used; step++) {
+            int slot = hand;
+            hand = (hand + 1) % used;
+            PageId pid = frames[slot];
+            if (pid == null)
+                continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
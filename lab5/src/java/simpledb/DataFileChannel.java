@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DataFileChannel is the open file behind a HeapFile or a BTreeFile.  The
+ * file is opened once, as a FileChannel, and read and written with
+ * positional I/O, so concurrent readers never share a file pointer.  If an
+ * interrupt closes the channel under a thread that was not interrupted
+ * itself, the channel is opened again and the I/O is retried.
+ * <p>
+ * For read-mostly tables the file can also be read through a read-only
+ * memory mapping, see {@link #map}.  Pages are then parsed straight from
+ * the mapped memory and the OS page cache serves as a second-tier buffer
+ * pool.  Writes still go through the channel, and the mapping is replaced
+ * by a larger one when a read finds that the file has grown.  A mapped
+ * file must not shrink while it is mapped.
+ */
+class DataFileChannel {
+
+    /** Name of the system property that makes data files read their pages
+        through a memory mapping by default. */
+    static final String MMAP_PROPERTY = "simpledb.file.mmap";
+
+    private final File f;
+    private FileChannel channel; // protected by this
+    private volatile MappedByteBuffer mapping;
+
+    DataFileChannel(File f) {
+        this.f = f;
+    }
+
+    /** Returns the channel, opening it again if it was closed. */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channel;
+    }
+
+    /**
+     * Reads from the file at the specified position until buf is full or
+     * the file ends.
+     *
+     * @return the number of bytes read
+     */
+    int read(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (true) {
+            try {
+                FileChannel ch = getChannel();
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, position + buf.position() - start) < 0) {
+                        break;
+                    }
+                }
+                return buf.position() - start;
+            } catch (ClosedChannelException e) {
+                // another thread's interrupt closed the channel; only give
+                // up if it was ours
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                buf.position(start);
+            }
+        }
+    }
+
+    /** Writes all of buf to the file at the specified position. */
+    void write(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (true) {
+            try {
+                FileChannel ch = getChannel();
+                while (buf.hasRemaining()) {
+                    ch.write(buf, position + buf.position() - start);
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                buf.position(start);
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only view of len bytes of the file at the specified
+     * position, backed by a memory mapping of the file.
+     *
+     * @return the view, or null if the bytes lie past the end of the file
+     *         or the file is too large to map in one piece
+     */
+    ByteBuffer map(long position, int len) throws IOException {
+        MappedByteBuffer m = mapping;
+        if (m == null || position + len > m.capacity()) {
+            m = remap(position + len);
+            if (m == null) {
+                return null;
+            }
+        }
+        ByteBuffer view = m.duplicate();
+        view.limit((int) (position + len));
+        view.position((int) position);
+        return view;
+    }
+
+    /** Maps the whole file again if it now holds the specified length. */
+    private synchronized MappedByteBuffer remap(long needed) throws IOException {
+        MappedByteBuffer m = mapping;
+        if (m != null && needed <= m.capacity()) {
+            return m; // another reader remapped already
+        }
+        FileChannel ch = getChannel();
+        long size = ch.size();
+        if (needed > size || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        m = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        mapping = m;
+        return m;
+    }
+}
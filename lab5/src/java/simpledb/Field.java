@@ -14,6 +14,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field, in the same format as
+     * {@link #serialize(DataOutputStream)}, at the position of the
+     * specified buffer, and advance the position past them.
+     * @param buf The buffer to write to.
+     */
+    void serialize(java.nio.ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -5,12 +5,15 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private Predicate p;
     private DbIterator child;
+    private transient TupleBatch in = null;
+    private transient TupleBatch out = null;
+    private transient int[] selected = null;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -47,6 +50,8 @@ public class Filter extends Operator {
         // some code goes here
     	child.close();
         super.close();
+        in = null;
+        out = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -76,6 +81,31 @@ public class Filter extends Operator {
     	return null;
     }
 
+    /**
+     * Returns the next batch of child rows that pass the predicate.  Each
+     * child batch is filtered with {@link Predicate#filter(TupleBatch, int[])}
+     * and the rows that pass are copied into this operator's batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            in = new TupleBatch(child.getTupleDesc());
+            out = new TupleBatch(child.getTupleDesc());
+            selected = new int[TupleBatch.MAX_ROWS];
+        }
+        out.clear();
+        while (out.size() == 0) {
+            TupleBatch b = TupleBatch.next(child, in);
+            if (b == null) {
+                return null;
+            }
+            int n = p.filter(b, selected);
+            for (int i = 0; i < n; i++) {
+                out.addRow(b, selected[i]);
+            }
+        }
+        return out;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have at least one empty
+ * slot, so an insert can find a page with room without reading, or
+ * locking, the full pages before it.
+ * <p>
+ * The map is only a hint.  It covers the first {@link #size()} pages of
+ * the file and is kept up to date as pages are read, written, inserted
+ * into and deleted from, but a caller must still check the page it is
+ * given, and report it with {@link #update} if it turns out to be full.
+ * Pages beyond the covered prefix, such as those appended to the file
+ * behind HeapFile's back, are learned by scanning them and extending the
+ * map.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+
+    private final BitSet free = new BitSet();
+    private int covered = 0;
+    private int cursor = 0; // no page before it has free space
+
+    /** @return the number of pages, from page 0, the map knows about */
+    synchronized int size() {
+        return covered;
+    }
+
+    /**
+     * Returns the first page that is known to have an empty slot, or -1 if
+     * no covered page has one.  Amortized O(1): the search starts where the
+     * last one ended, and only moves back when a page before it frees up.
+     */
+    synchronized int findFree() {
+        int pgNo = free.nextSetBit(cursor);
+        if (pgNo < 0 || pgNo >= covered) {
+            cursor = covered;
+            return -1;
+        }
+        cursor = pgNo;
+        return pgNo;
+    }
+
+    /**
+     * Records whether the specified page has an empty slot.  A page just
+     * past the covered prefix extends it; pages further on are ignored
+     * until the pages before them are known.
+     */
+    synchronized void update(int pgNo, boolean hasFree) {
+        if (pgNo > covered) {
+            return;
+        }
+        if (pgNo == covered) {
+            covered++;
+        }
+        free.set(pgNo, hasFree);
+        if (hasFree && pgNo < cursor) {
+            cursor = pgNo;
+        }
+    }
+}
@@ -4,14 +4,26 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join.  open() builds a hash table of
+ * child1's tuples, and child2's tuples probe it.  If child1 has more than
+ * the memory budget of tuples, both inputs are split into PARTITIONS
+ * partitions by the hash of their join field: partition 0 stays in the
+ * hash table and is joined as child2 is read, and the others are written
+ * to SpillFiles and then joined one partition at a time.  Each input is
+ * read at most twice, once from the child and once from disk.  A spilled
+ * partition is loaded whole, even if it is larger than the budget.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
+    private final int memoryTuples;
+    private boolean reuseOutput = false;
+    transient private Tuple output = null;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
@@ -28,12 +40,34 @@ public class HashEquiJoin extends Operator {
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join that holds at most the specified number of
+     * child1 tuples in memory before it partitions its inputs to disk.
+     *
+     * @see #HashEquiJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryTuples) {
     	this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Make this join return the same Tuple, filled with the next result,
+     * from every call to next().
+     *
+     * @see Join#setReuseOutput(boolean)
+     */
+    public void setReuseOutput(boolean reuse) {
+        this.reuseOutput = reuse;
+    }
+
     public JoinPredicate getJoinPredicate() {
         // some code goes here
         return pred;
@@ -56,30 +90,176 @@ public class HashEquiJoin extends Operator {
         return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    private HashMap<Object, ArrayList<Tuple>> map = new HashMap<>();
+    /** Default memory budget, in child1 tuples. */
     public final static int MAP_SIZE = 20000;
-    
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+
+    /** Number of partitions the inputs are split into when child1 does not
+        fit in memory. */
+    public final static int PARTITIONS = 16;
+
+    private HashMap<Object, ArrayList<Tuple>> map = new HashMap<>();
+    transient private int partitions = 1; // 1 while child1 fits in memory
+    transient private int partition = 0; // the partition being joined
+    transient private SpillFile[] buildSpills = null; // child1's partitions
+    transient private SpillFile[] probeSpills = null; // child2's partitions
+    transient private SpillFile.Reader probeReader = null;
+
+    /** Returns the partition of a join field value. */
+    static int partitionOf(Field key, int partitions) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    /**
+     * Reads child1 into the hash table, spilling the partitions other than
+     * partition 0 to disk if it grows past the memory budget.
+     */
+    private void build() throws DbException, TransactionAbortedException {
         map.clear();
+        partitions = 1;
+        partition = 0;
+        int inMemory = 0;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<Tuple>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            Field key = t.getField(pred.getField1());
+            if (partitions > 1) {
+                int part = partitionOf(key, partitions);
+                if (part != 0) {
+                    buildSpills[part].add(t);
+                    continue;
+                }
+            }
+            map.computeIfAbsent(key, k -> new ArrayList<Tuple>()).add(t);
+            if (++inMemory > memoryTuples && partitions == 1) {
+                inMemory = spill();
+            }
         }
-        return cnt > 0;
+    }
 
+    /**
+     * Builds the hash table, deleting any partitions written so far if the
+     * build fails, as the caller may never close this operator.
+     */
+    private void buildOrDelete() throws DbException, TransactionAbortedException {
+        try {
+            build();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            deleteSpills();
+            throw e;
+        }
     }
-    
+
+    /**
+     * Splits the hash table into partitions, keeping partition 0 and
+     * writing the others to disk.
+     *
+     * @return the number of tuples left in the table
+     */
+    private int spill() throws DbException {
+        partitions = PARTITIONS;
+        buildSpills = new SpillFile[partitions];
+        probeSpills = new SpillFile[partitions];
+        for (int i = 1; i < partitions; i++) {
+            buildSpills[i] = new SpillFile(child1.getTupleDesc());
+            probeSpills[i] = new SpillFile(child2.getTupleDesc());
+        }
+        int kept = 0;
+        Iterator<Map.Entry<Object, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, ArrayList<Tuple>> e = it.next();
+            int part = partitionOf((Field) e.getKey(), partitions);
+            if (part == 0) {
+                kept += e.getValue().size();
+                continue;
+            }
+            for (Tuple t : e.getValue()) {
+                buildSpills[part].add(t);
+            }
+            it.remove();
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the next tuple to probe the hash table with, or null if the
+     * current partition is done.  While partition 0 is joined, child2's
+     * tuples of the other partitions are written to disk on the way.
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (partition >= partitions) {
+            return null;
+        }
+        if (partition == 0) {
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                if (partitions == 1) {
+                    return t;
+                }
+                int part = partitionOf(t.getField(pred.getField2()), partitions);
+                if (part == 0) {
+                    return t;
+                }
+                probeSpills[part].add(t);
+            }
+            return null;
+        }
+        return probeReader.next();
+    }
+
+    /**
+     * Loads the next spilled partition of child1 into the hash table.
+     *
+     * @return false if every partition has been joined
+     */
+    private boolean nextPartition() throws DbException {
+        map.clear();
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        if (partition > 0 && partition < partitions) {
+            probeSpills[partition].delete();
+        }
+        while (++partition < partitions) {
+            if (buildSpills[partition].size() == 0 || probeSpills[partition].size() == 0) {
+                // nothing in this partition can match
+                buildSpills[partition].delete();
+                probeSpills[partition].delete();
+                continue;
+            }
+            SpillFile.Reader r = buildSpills[partition].reader();
+            Tuple t;
+            while ((t = r.next()) != null) {
+                map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<Tuple>()).add(t);
+            }
+            buildSpills[partition].delete();
+            probeReader = probeSpills[partition].reader();
+            return true;
+        }
+        return false;
+    }
+
+    private void deleteSpills() {
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        for (int i = 1; buildSpills != null && i < buildSpills.length; i++) {
+            buildSpills[i].delete();
+            probeSpills[i].delete();
+        }
+        buildSpills = null;
+        probeSpills = null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
     	super.open();
+        output = new Tuple(comboTD);
         child1.open();
         child2.open();
-        loadMap();
+        buildOrDelete();
     }
 
     public void close() {
@@ -91,12 +271,21 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.out = null;
+        this.probe = null;
+        this.matches = null;
+        deleteSpills();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        deleteSpills();
     	child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        this.probe = null;
+        this.matches = null;
+        buildOrDelete();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -122,46 +311,93 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
         // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+        Tuple t = reuseOutput ? output : new Tuple(comboTD);
+        t.setFields(t1, t2);
         return t;
 
     }
     
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-    	if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            Tuple probe = nextProbe();
+            if (probe != null) {
+                // if match, create a combined tuple and fill it with the
+                // values from both tuples
+                ArrayList<Tuple> l = map.get(probe.getField(pred.getField2()));
+                if (l != null) {
+                    t2 = probe;
+                    listIt = l.iterator();
+                }
                 continue;
-            listIt = l.iterator();
+            }
+
+            // this partition is done: join the next one
+            if (!nextPartition()) {
+                return null;
+            }
+        }
+    }
+
+    // state of nextBatch between calls
+    transient private TupleBatch out = null;
+    transient private TupleBatch probeIn = null;
+    transient private TupleBatch probe = null;
+    transient private int probeRow = 0;
+    transient private ArrayList<Tuple> matches = null;
+    transient private int matchIdx = 0;
 
-            return processList();
+    /** Returns the next batch of tuples to probe with, see nextProbe. */
+    private TupleBatch nextProbeBatch() throws DbException, TransactionAbortedException {
+        if (partitions == 1) {
+            // nothing spilled: read child2's own batches
+            return partition == 0 ? TupleBatch.next(child2, probeIn) : null;
+        }
+        probeIn.clear();
+        Tuple t;
+        while (!probeIn.isFull() && (t = nextProbe()) != null) {
+            probeIn.add(t);
+        }
+        return probeIn.size() > 0 ? probeIn : null;
+    }
 
+    /**
+     * Returns the next batch of joined rows.  The probe side is read a batch
+     * at a time, and each of its rows is looked up in the hash table.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            out = new TupleBatch(comboTD);
+            probeIn = new TupleBatch(child2.getTupleDesc());
         }
+        out.clear();
+        while (!out.isFull()) {
+            if (matches != null && matchIdx < matches.size()) {
+                out.addJoined(matches.get(matchIdx++), probe, probeRow);
+                continue;
+            }
+            matches = null;
+            if (probe != null && probeRow + 1 < probe.size()) {
+                probeRow++;
+                matches = map.get(probe.getField(pred.getField2(), probeRow));
+                matchIdx = 0;
+                continue;
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // this batch is done: read the next one
+            probe = nextProbeBatch();
+            probeRow = -1;
+            if (probe == null && !nextPartition()) {
+                break;
+            }
         }
-    	return null;
+        return out.size() > 0 ? out : null;
     }
 
     @Override
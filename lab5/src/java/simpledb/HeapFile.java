@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,6 +10,15 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Inserts find a page with an empty slot through the file's
+ * {@link FreeSpaceMap}, which is built lazily from the page headers on the
+ * first insert and kept up to date as pages are read and written.
+ * <p>
+ * Pages are read and written with positional I/O on a FileChannel that
+ * the HeapFile opens once and keeps, so concurrent readers never share a
+ * file pointer.  A read-mostly table can instead read its pages through a
+ * memory mapping of the file; see {@link #setMemoryMapped}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -25,10 +35,24 @@ public class HeapFile implements DbFile {
      */
 	private final File f;
 	private final TupleDesc td;
+	private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+	private final DataFileChannel data;
+	private volatile boolean memoryMapped = Boolean.getBoolean(DataFileChannel.MMAP_PROPERTY);
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
     	this.f = f;
     	this.td = td;
+    	this.data = new DataFileChannel(f);
+    }
+
+    /**
+     * Sets whether readPage builds pages straight from a read-only memory
+     * mapping of the file instead of reading them into a byte array.  Meant
+     * for read-mostly tables; writes go through the FileChannel either way.
+     * The default is taken from the system property simpledb.file.mmap.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
     }
 
     /**
@@ -73,18 +97,33 @@ public class HeapFile implements DbFile {
     	int tableId = pid.getTableId();
         int pgNo = pid.pageNumber();
         int pageSize = BufferPool.getPageSize();
-        byte[] data = HeapPage.createEmptyPageData();
-        HeapPage page = null;
 
         try {
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
-            raf.seek(pgNo * pageSize);
-            raf.read(data, 0, data.length);
-            page = new HeapPage(new HeapPageId(tableId, pgNo), data);
+            HeapPage page;
+            ByteBuffer mapped = null;
+            if (memoryMapped && pgNo >= 0) {
+                mapped = data.map((long) pgNo * pageSize, pageSize);
+            }
+            if (mapped != null) {
+                page = new HeapPage(new HeapPageId(tableId, pgNo), mapped);
+            } else {
+                byte[] bytes = HeapPage.createEmptyPageData();
+                int read = pgNo < 0 ? 0 : data.read(ByteBuffer.wrap(bytes), (long) pgNo * pageSize);
+                if (read == 0) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                if (read < pageSize) {
+                    throw new IllegalArgumentException("Unable to read "
+                            + pageSize + " bytes from HeapFile");
+                }
+                page = HeapPage.wrap(new HeapPageId(tableId, pgNo), bytes);
+            }
+            freeSpace.update(pgNo, page.getNumEmptySlots() > 0);
+            return page;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException(e);
         }
-        return page;    }
+    }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
@@ -93,11 +132,32 @@ public class HeapFile implements DbFile {
     	PageId pid = page.getId();
         int pgNo = pid.pageNumber();
         int pageSize = BufferPool.getPageSize();
-        byte[] data = page.getPageData();
+        byte[] bytes = page.getPageData();
+
+        data.write(ByteBuffer.wrap(bytes), (long) pgNo * pageSize);
+        if (page instanceof HeapPage) {
+            freeSpace.update(pgNo, ((HeapPage) page).getNumEmptySlots() > 0);
+        }
+    }
 
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek((long) pgNo * pageSize);
-        raf.write(data, 0, data.length);
+    /**
+     * Extends the free space map to the specified number of pages by
+     * reading the headers of the pages it does not cover yet.
+     */
+    private synchronized void scanFreeSpace(int numPages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        byte[] header = new byte[(slots + 7) / 8];
+        for (int pgNo = freeSpace.size(); pgNo < numPages; pgNo = freeSpace.size()) {
+            if (data.read(ByteBuffer.wrap(header), (long) pgNo * pageSize) < header.length) {
+                break;
+            }
+            boolean hasFree = false;
+            for (int i = 0; i < slots && !hasFree; i++) {
+                hasFree = ((header[i / 8] >> (i % 8)) & 1) == 0;
+            }
+            freeSpace.update(pgNo, hasFree);
+        }
     }
 
     /**
@@ -119,20 +179,41 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
     	HeapPageId pid;
         HeapPage page;
-        for(int pgNo = 0; pgNo < numPages(); pgNo++) {
+        int pgNo;
+        // pages appended from here on are found through the map, so the
+        // file is only asked for its length once
+        int pages = numPages();
+        while ((pgNo = freeSpace.findFree()) >= 0 || freeSpace.size() < pages) {
+            if (pgNo < 0) {
+                scanFreeSpace(pages);
+                continue;
+            }
             pid = new HeapPageId(getId(), pgNo);
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
             page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
 
             if(page.getNumEmptySlots() > 0) {
                 page.insertTuple(t);
+                freeSpace.update(pgNo, page.getNumEmptySlots() > 0);
                 return new ArrayList<>(Collections.singletonList(page));
             }
+            // the map was stale; the page is unchanged, so a lock taken
+            // just to look at it can go
+            freeSpace.update(pgNo, false);
+            if (!held) {
+                Database.getBufferPool().releasePage(tid, pid);
+            }
         }
-        pid = new HeapPageId(getId(), numPages());
-        page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        // append an empty page, then insert through the buffer pool like
+        // any other page so the insert is logged and can be rolled back
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            writePage(HeapPage.wrap(pid, HeapPage.createEmptyPageData()));
+        }
+        page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.insertTuple(t);
-        writePage(page);
-        return new ArrayList<>();
+        freeSpace.update(pid.pageNumber(), page.getNumEmptySlots() > 0);
+        return new ArrayList<>(Collections.singletonList(page));
     }
 
     // see DbFile.java for javadocs
@@ -146,6 +227,7 @@ public class HeapFile implements DbFile {
         assert pid.getTableId() == getId();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        freeSpace.update(pid.pageNumber(), true);
         return new ArrayList<>(Collections.singletonList(page));
     }
 
@@ -160,6 +242,7 @@ public class HeapFile implements DbFile {
         private int end;
         private Iterator<Tuple> it;
         private TransactionId tid;
+        private BufferRing ring;
 
         public HeapFileIterator(TransactionId tid) {
             this.tid = tid;
@@ -170,12 +253,15 @@ public class HeapFile implements DbFile {
         private Iterator<Tuple> getTupleIterator(int pgNo)
             throws TransactionAbortedException, DbException {
             HeapPageId pid = new HeapPageId(getId(), pgNo);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, ring);
             return page.iterator();
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            // large scans read through a private ring so they do not flush
+            // the rest of the buffer pool
+            ring = Database.getBufferPool().getScanRing(end);
             cur = 0;
             while(cur < end && !getTupleIterator(cur).hasNext()) cur++;
             it = cur < end ? getTupleIterator(cur) : null;
@@ -2,14 +2,20 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage is backed by its page bytes, in the format described in the
+ * constructor.  Slots are not parsed when the page is created: a tuple is
+ * decoded the first time it is accessed, and kept until its slot changes.
+ * Inserts write the tuple's fields in place and flip the slot's header
+ * bit, so getPageData only has to copy the bytes.  A page created from a
+ * buffer, such as a slice of a memory-mapped file, reads the buffer in
+ * place and only copies it on its first write.
  *
  * @see HeapFile
  * @see BufferPool
@@ -19,12 +25,15 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    private ByteBuffer data; // header bytes, then the slots, from index 0
+    private boolean shared; // data is not the page's own, copy before writing
+    final Tuple tuples[]; // decoded tuples; null until a used slot is read
     final int numSlots;
+    final int headerSize;
+    final boolean allInts; // every field is an INT_TYPE
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    byte[] oldData; // null while the page matches its before image
+    private final Object oldDataLock = new Object();
 
     
     private TransactionId dirtyTid;
@@ -47,27 +56,48 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()), false);
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit
+     * of a buffer, such as a slice of a memory-mapped file.  The page reads
+     * the bytes in place and copies them on its first write, so the buffer
+     * is never written; its bytes must not change while the page uses it.
+     * The buffer's position is not changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data.slice(), true);
+    }
+
+    // the page reads data in place, and writes it unless it is shared
+    private HeapPage(HeapPageId id, ByteBuffer data, boolean shared) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        boolean ints = true;
+        for (int j = 0; j < td.numFields(); j++) {
+            ints &= td.getFieldType(j) == Type.INT_TYPE;
+        }
+        this.allInts = ints;
+        if (data.capacity() < BufferPool.getPageSize()) {
+            throw new IOException("short page: " + data.capacity() + " bytes");
         }
-        dis.close();
+        this.data = data;
+        this.shared = shared;
+        this.tuples = new Tuple[numSlots];
+    }
 
-        setBeforeImage();
+    /**
+     * Create a HeapPage that uses the specified array, which nobody else
+     * may hold on to, as its backing store instead of copying it.  Used by
+     * HeapFile for pages it has just read.
+     */
+    static HeapPage wrap(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, ByteBuffer.wrap(data), false);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -99,6 +129,13 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null) {
+                // not modified since the before image was set
+                if (shared) {
+                    return new HeapPage(pid, data.duplicate(), true);
+                }
+                return wrap(pid, getPageData());
+            }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -108,13 +145,46 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents of this page its before image.  The bytes
+     * are not copied until the page is next modified, so pages that are
+     * only read never copy them.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** Copy the page bytes into the before image, unless they have been
+        copied since it was last set.  Called before the page changes. */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    /** Give the page its own copy of a shared buffer before it writes. */
+    private void ensureWritable() {
+        if (shared) {
+            data = ByteBuffer.wrap(getPageData());
+            shared = false;
         }
     }
 
+    /** @return a view of the bytes of the specified slot */
+    private ByteBuffer slot(int slotId) {
+        int off = headerSize + slotId * td.getSize();
+        ByteBuffer buf = data.duplicate();
+        buf.limit(off + td.getSize());
+        buf.position(off);
+        return buf;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -125,36 +195,49 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in the specified slot, decoding it from the page
+     * bytes the first time it is asked for.  Returns null for an empty slot.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private Tuple getTuple(int slotId) throws NoSuchElementException {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = decode(slotId);
+            tuples[slotId] = t;
+        }
+        return t;
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the bytes of the specified slot into a new tuple, whether or
+     * not the slot is in use.
+     */
+    private Tuple decode(int slotId) throws NoSuchElementException {
+        ByteBuffer buf = slot(slotId);
+        if (allInts) {
+            // keep the values unboxed; see Tuple#getInt
+            int[] values = new int[td.numFields()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = buf.getInt();
+            }
+            Tuple t = new Tuple(td, values);
+            t.setRecordId(new RecordId(pid, slotId));
+            return t;
+        }
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(buf);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
-
         return t;
     }
 
@@ -165,69 +248,17 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page is kept in its serialized form, so this is a copy of the
+     * page bytes.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] bytes = new byte[data.capacity()];
+        data.duplicate().get(bytes);
+        return bytes;
     }
 
     /**
@@ -262,7 +293,12 @@ public class HeapPage implements Page {
         }
 
         int tupleno = rid.tupleno();
+        if(tupleno < 0 || tupleno >= numSlots) {
+            throw new DbException("This tuple is not on this page!");
+        }
         if(isSlotUsed(tupleno)) {
+            captureBeforeImage();
+            ensureWritable();
             markSlotUsed(tupleno, false);
             tuples[tupleno] = null;
         } else {
@@ -285,9 +321,21 @@ public class HeapPage implements Page {
 
         for(int i = 0; i < numSlots; i++) {
             if(!isSlotUsed(i)) {
+                captureBeforeImage();
+                ensureWritable();
+                // write the fields in place; the slot is decoded again
+                // when it is read, so the page never shares t
+                ByteBuffer buf = slot(i);
+                for (int j = 0; j < td.numFields(); j++) {
+                    if (allInts) {
+                        buf.putInt(t.getInt(j));
+                    } else {
+                        t.getField(j).serialize(buf);
+                    }
+                }
+                tuples[i] = null;
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
                 return;
             }
         }
@@ -319,13 +367,16 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-    	int empty = 0;
-    	for (int i = 0; i < numSlots; i++) {
-    		if(!isSlotUsed(i)) {
-    			++empty;
+    	int used = 0;
+    	for (int i = 0; i < numSlots / 8; i++) {
+    		used += Integer.bitCount(data.get(i) & 0xff);
+    	}
+    	for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+    		if(isSlotUsed(i)) {
+    			++used;
     		}
     	}
-        return empty;
+        return numSlots - used;
     }
 
     /**
@@ -335,7 +386,7 @@ public class HeapPage implements Page {
         // some code goes here
     	int ith = i / 8;
     	int bitth = i % 8;
-    	int onBit = (header[ith] >> bitth) & 1;		
+    	int onBit = (data.get(ith) >> bitth) & 1;
         return onBit == 1;
     }
 
@@ -348,13 +399,14 @@ public class HeapPage implements Page {
     	int iTh = i / 8;
         // calculate the palce in bitmap
         int bitTh = i % 8;
-        int onBit = (header[iTh] >> bitTh) & 1;
+        byte b = data.get(iTh);
+        int onBit = (b >> bitTh) & 1;
 
         // need to change 
         if(onBit == 0 && value){
-            header[iTh] += (1 << bitTh);
+            data.put(iTh, (byte) (b + (1 << bitTh)));
         }else if(onBit == 1 && !value){
-            header[iTh] -= (1 << bitTh);
+            data.put(iTh, (byte) (b - (1 << bitTh)));
         }
     }
 
@@ -364,13 +416,45 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-    	List<Tuple> tupleList = new ArrayList<>();
-    	for (int i = 0; i < numSlots; i++) {
-    		if(isSlotUsed(i)) {
-    			tupleList.add(tuples[i]);
-    		}
-    	}
-        return tupleList.iterator();
+        // the slots in use are fixed when the iterator is created, so a
+        // tuple inserted into this page while it is scanned is not returned
+        final byte[] used = new byte[headerSize];
+        data.duplicate().get(used);
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < numSlots && ((used[i / 8] >> (i % 8)) & 1) == 0) {
+                    i++;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                if (t == null) {
+                    // deleted since the iterator was created; a delete
+                    // leaves the slot's bytes in place
+                    t = decode(next);
+                }
+                next = advance(next + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is an equality join whose inner relation is a
+ * BTreeFile keyed on its join field.  Instead of scanning the inner
+ * relation once per outer tuple, as Join does, it looks each outer tuple's
+ * key up in the B+ tree with {@link BTreeFile#indexIterator}, reading only
+ * the pages on the way down to the matching leaves.
+ * <p>
+ * child2 is a SeqScan of the inner table, see {@link #canProbe}.  It gives
+ * the join its inner schema, transaction and table, but is never opened.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private SeqScan child2;
+    private TupleDesc comboTD;
+    private BTreeFile index;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Scan of the right(inner) relation, a BTreeFile keyed on
+     *            the join field
+     * @throws IllegalArgumentException
+     *            if child2 cannot be probed on the join field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, SeqScan child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS || !canProbe(child2, p.getField2())) {
+            throw new IllegalArgumentException(
+                    "IndexNestedLoopJoin needs an equality join on the key of a BTreeFile");
+        }
+        this.p = p;
+        this.child1 = child1;
+        setInner(child2);
+    }
+
+    private void setInner(SeqScan child2) {
+        this.child2 = child2;
+        this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Returns true if the specified iterator is a SeqScan of a BTreeFile
+     * keyed on the specified field, so that a join can look its tuples up
+     * by that field instead of reading them.
+     */
+    public static boolean canProbe(DbIterator it, int field) {
+        if (!(it instanceof SeqScan)) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+     *      implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    private Tuple t1 = null; // the outer tuple being joined
+    private DbFileIterator matches = null; // its matches in the index
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+        t1 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  For each child1 tuple, its matches are returned in the
+     * order of the B+ tree.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple t = new Tuple(comboTD);
+                t.setFields(t1, matches.next());
+                return t;
+            }
+            closeMatches();
+            if (!child1.hasNext()) {
+                t1 = null;
+                return null;
+            }
+            t1 = child1.next();
+            matches = index.indexIterator(child2.getTransactionId(),
+                    new IndexPredicate(Predicate.Op.EQUALS, t1.getField(p.getField1())));
+            matches.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        setInner((SeqScan) children[1]);
+    }
+
+}
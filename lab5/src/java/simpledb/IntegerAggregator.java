@@ -1,6 +1,5 @@
 package simpledb;
 
-import java.lang.reflect.Array;
 import java.util.*;
 
 /**
@@ -14,7 +13,19 @@ public class IntegerAggregator implements Aggregator {
     private final Type gbfieldtype;
     private final int afield;
     private final Op what;
-    private final TreeMap<Object, ArrayList<Integer> > aggregator;
+    // running accumulators, by group number: the SUM (also for AVG), MIN or
+    // MAX so far, and the number of values
+    private long[] values = new long[16];
+    private int[] counts = new int[16];
+    private int groups = 0;
+
+    // group numbers of INT_TYPE group values, in an open addressing hash
+    // table: slots holds group number + 1, or 0 for an empty slot
+    private int[] intKeys;
+    private int[] slots;
+    // group numbers of STRING_TYPE group values
+    private HashMap<String, Integer> stringGroups;
+    private String[] stringKeys;
     
     /**
      * Aggregate constructor
@@ -37,9 +48,118 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.aggregator = new TreeMap<>();
         if(gbfield == NO_GROUPING) {
-            aggregator.put(0, new ArrayList<>());
+            newGroup();
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            intKeys = new int[16];
+            slots = new int[32];
+        } else {
+            stringGroups = new HashMap<>();
+            stringKeys = new String[16];
+        }
+    }
+
+    /** Adds a group with empty accumulators, and returns its number. */
+    private int newGroup() {
+        if (groups == values.length) {
+            values = Arrays.copyOf(values, groups * 2);
+            counts = Arrays.copyOf(counts, groups * 2);
+            if (intKeys != null) {
+                intKeys = Arrays.copyOf(intKeys, groups * 2);
+            }
+            if (stringKeys != null) {
+                stringKeys = Arrays.copyOf(stringKeys, groups * 2);
+            }
+        }
+        return groups++;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** @return the number of the group of an INT_TYPE group value */
+    private int intGroup(int key) {
+        int mask = slots.length - 1;
+        int i = slot(key, mask);
+        int g;
+        while ((g = slots[i]) != 0) {
+            if (intKeys[g - 1] == key) {
+                return g - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        g = newGroup();
+        intKeys[g] = key;
+        slots[i] = g + 1;
+        if (groups * 2 > slots.length) {
+            // keep the table at most half full
+            slots = new int[slots.length * 2];
+            mask = slots.length - 1;
+            for (int k = 0; k < groups; k++) {
+                int j = slot(intKeys[k], mask);
+                while (slots[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                slots[j] = k + 1;
+            }
+        }
+        return g;
+    }
+
+    /** @return the number of the group of a STRING_TYPE group value */
+    private int stringGroup(String key) {
+        Integer g = stringGroups.get(key);
+        if (g == null) {
+            g = newGroup();
+            stringKeys[g] = key;
+            stringGroups.put(key, g);
+        }
+        return g;
+    }
+
+    /** Adds a value to the accumulators of a group. */
+    private void add(int g, int v) {
+        add(g, v, 1);
+    }
+
+    /**
+     * Merges the accumulators of n values into those of a group: the SUM,
+     * MIN or MAX of the values, and n.
+     */
+    private void add(int g, long v, int n) {
+        switch (what) {
+            case MIN:
+                if (counts[g] == 0 || v < values[g]) {
+                    values[g] = v;
+                }
+                break;
+            case MAX:
+                if (counts[g] == 0 || v > values[g]) {
+                    values[g] = v;
+                }
+                break;
+            case SUM:
+            case AVG:
+                values[g] += v;
+                break;
+            default:
+                break;
+        }
+        counts[g] += n;
+    }
+
+    /** @return the aggregate value of a group */
+    private int result(int g) {
+        switch (what) {
+            case COUNT:
+                return counts[g];
+            case AVG:
+                return counts[g] == 0 ? 0 : (int) (values[g] / counts[g]);
+            default:
+                // SUM wraps around as an int sum would
+                return (int) values[g];
         }
     }
 
@@ -52,18 +172,76 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        int g;
     	if (this.gbfield == Aggregator.NO_GROUPING) {
-            aggregator.get(0).add(((IntField) tup.getField(afield)).getValue());
+            g = 0;
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            g = intGroup(tup.getInt(gbfield));
         } else {
-            Object gbKey = (gbfieldtype == Type.INT_TYPE) ?
-                    ((IntField) tup.getField(gbfield)).getValue() :
-                    ((StringField) tup.getField(gbfield)).getValue();
-            Integer aggrVal = ((IntField) tup.getField(afield)).getValue();
-            if(!aggregator.containsKey(gbKey)) {
-                aggregator.put(gbKey, new ArrayList<>());
+            g = stringGroup(((StringField) tup.getField(gbfield)).getValue());
+        }
+        add(g, tup.getInt(afield));
+    }
+
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int[] column = batch.getIntColumn(afield);
+        int n = batch.size();
+        if (this.gbfield == Aggregator.NO_GROUPING) {
+            for (int r = 0; r < n; r++) {
+                add(0, column[r]);
+            }
+            return;
+        }
+        if (gbfieldtype == Type.INT_TYPE) {
+            // runs of rows of one group only look the group up once
+            int[] keys = batch.getIntColumn(gbfield);
+            int g = -1;
+            for (int r = 0; r < n; r++) {
+                if (g < 0 || keys[r] != intKeys[g]) {
+                    g = intGroup(keys[r]);
+                }
+                add(g, column[r]);
             }
-            aggregator.get(gbKey).add(aggrVal);
+            return;
+        }
+        String lastKey = null;
+        int g = -1;
+        for (int r = 0; r < n; r++) {
+            String gbKey = ((StringField) batch.getField(gbfield, r)).getValue();
+            if (!gbKey.equals(lastKey)) {
+                g = stringGroup(gbKey);
+                lastKey = gbKey;
+            }
+            add(g, column[r]);
+        }
+    }
+
+    public int numGroups() {
+        return groups;
+    }
+
+    public DbIterator partials() {
+        TupleDesc td = Aggregator.partialDesc(gbfieldtype);
+        ArrayList<Tuple> res = new ArrayList<Tuple>(groups);
+        for (int g = 0; g < groups; g++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, gbfieldtype == Type.INT_TYPE ?
+                    new IntField(intKeys[g]) :
+                    new StringField(stringKeys[g], Type.STRING_LEN));
+            t.setField(1, new IntField((int) (values[g] >>> 32)));
+            t.setField(2, new IntField((int) values[g]));
+            t.setField(3, new IntField(counts[g]));
+            res.add(t);
         }
+        return new TupleIterator(td, res);
+    }
+
+    public void mergePartial(Tuple partial) {
+        int g = gbfieldtype == Type.INT_TYPE ?
+                intGroup(partial.getInt(0)) :
+                stringGroup(((StringField) partial.getField(0)).getValue());
+        long v = ((long) partial.getInt(1) << 32) | (partial.getInt(2) & 0xffffffffL);
+        add(g, v, partial.getInt(3));
     }
 
     /**
@@ -83,64 +261,35 @@ public class IntegerAggregator implements Aggregator {
         private ArrayList<Tuple> res;
         private Iterator<Tuple> it;
 
-        public int calcAggrRes(ArrayList<Integer> l) {
-            assert !l.isEmpty();
-            int res = 0;
-            switch (what) {
-                case MIN:
-                    res = l.get(0);
-                    for (int v : l) {
-                        if (res > v) {
-                            res = v;
-                        }
-                    }
-                    break;
-                case MAX:
-                    res = l.get(0);
-                    for (int v : l) {
-                        if (res < v) {
-                            res = v;
-                        }
-                    }
-                    break;
-                case SUM:
-                    res = 0;
-                    for (int v : l) {
-                        res += v;
-                    }
-                    break;
-                case AVG:
-                    res = 0;
-                    for (int v : l) {
-                        res += v;
-                    }
-                    res = res / l.size();
-                    break;
-                case COUNT:
-                    res = l.size();
-                    break;
-            }
-            return res;
-        }
-
         public AggrDbIterator() {
             res = new ArrayList<Tuple>();
             if (gbfield == Aggregator.NO_GROUPING) {
-                Tuple t = new Tuple(getTupleDesc());
-                Field aggregateVal = new IntField(this.calcAggrRes(aggregator.get(0)));
-                t.setField(0, aggregateVal);
-                res.add(t);
-            } else {
-                for (Map.Entry<Object, ArrayList<Integer> > e : aggregator.entrySet()) {
+                // only a COUNT has a value over no tuples
+                if (counts[0] > 0 || what == Op.COUNT) {
                     Tuple t = new Tuple(getTupleDesc());
-                    Field groupVal = (gbfieldtype == Type.INT_TYPE) ?
-                            new IntField((int) e.getKey()) :
-                            new StringField((String) e.getKey(), ((String) e.getKey()).length());
-                    Field aggregateVal = new IntField(this.calcAggrRes(e.getValue()));
-                    t.setField(0, groupVal);
-                    t.setField(1, aggregateVal);
+                    t.setField(0, new IntField(result(0)));
                     res.add(t);
                 }
+                return;
+            }
+            // groups in ascending order of their group values
+            Integer[] order = new Integer[groups];
+            for (int g = 0; g < groups; g++) {
+                order[g] = g;
+            }
+            if (gbfieldtype == Type.INT_TYPE) {
+                Arrays.sort(order, (g1, g2) -> Integer.compare(intKeys[g1], intKeys[g2]));
+            } else {
+                Arrays.sort(order, (g1, g2) -> stringKeys[g1].compareTo(stringKeys[g2]));
+            }
+            for (int g : order) {
+                Tuple t = new Tuple(getTupleDesc());
+                Field groupVal = (gbfieldtype == Type.INT_TYPE) ?
+                        new IntField(intKeys[g]) :
+                        new StringField(stringKeys[g], stringKeys[g].length());
+                t.setField(0, groupVal);
+                t.setField(1, new IntField(result(g)));
+                res.add(t);
             }
         }
 
@@ -12,6 +12,7 @@ public class Join extends Operator {
     private final JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
+    private boolean reuseOutput = false;
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -30,6 +31,16 @@ public class Join extends Operator {
         this.child2 = child2;
     }
 
+    /**
+     * Make this join return the same Tuple, filled with the next result,
+     * from every call to next(), instead of a new one per result.  Only
+     * safe when the consumer is done with each tuple before it asks for
+     * the next one, as Project, Filter and Insert are.
+     */
+    public void setReuseOutput(boolean reuse) {
+        this.reuseOutput = reuse;
+    }
+
     public JoinPredicate getJoinPredicate() {
         // some code goes here
         return p;
@@ -65,11 +76,15 @@ public class Join extends Operator {
     }
 
     private Tuple fetched = null;
+    private TupleDesc comboTD = null;
+    private Tuple output = null;
     
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
     	super.open();
+        comboTD = getTupleDesc();
+        output = new Tuple(comboTD);
         child1.open();
         if(child1.hasNext()) {
             fetched = child1.next();
@@ -133,16 +148,11 @@ public class Join extends Operator {
                     fetched = null;
                 }
             }
-        } while(fetched != null && fetching != null && !(fetched.getField(p.getField1()).compare(p.getOperator(), fetching.getField(p.getField2()))));
+        } while(fetched != null && fetching != null && !p.filter(fetched, fetching));
 
         if(fetched != null && fetching != null) {
-            Tuple nextTuple = new Tuple(TupleDesc.merge(fetched.getTupleDesc(), fetching.getTupleDesc()));
-            for(int i = 0; i < fetched.getTupleDesc().numFields(); i++) {
-                nextTuple.setField(i, fetched.getField(i));
-            }
-            for(int i = 0; i < fetching.getTupleDesc().numFields(); i++) {
-                nextTuple.setField(i + fetched.getTupleDesc().numFields(), fetching.getField(i));
-            }
+            Tuple nextTuple = reuseOutput ? output : new Tuple(comboTD);
+            nextTuple.setFields(fetched, fetching);
             return nextTuple;
         }
 
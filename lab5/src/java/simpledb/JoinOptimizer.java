@@ -11,6 +11,14 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+
+    /**
+     * Cost of adding one tuple to the hash table of a HashEquiJoin, relative
+     * to the cost of probing it with one tuple, which is 1.  Building costs
+     * more, so the optimizer builds on the side with fewer tuples.
+     */
+    static final double HASH_BUILD_COST = 2.0;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -68,7 +76,23 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            // plan2 is an unfiltered B+ tree keyed on the join field; see
+            // estimateJoinCost
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            if (SortMergeJoin.isSorted(plan1, t1id) && SortMergeJoin.isSorted(plan2, t2id)) {
+                // nothing to sort, so merging is cheaper than hashing
+                j = new SortMergeJoin(p, plan1, plan2);
+            } else {
+                // builds its hash table on plan1; see estimateJoinCost
+                j = new HashEquiJoin(p, plan1, plan2);
+            }
+        } else if (lj.p == Predicate.Op.LIKE) {
+            j = new Join(p, plan1, plan2);
+        } else {
+            j = new SortMergeJoin(p, plan1, plan2);
+        }
 
         return j;
 
@@ -102,6 +126,21 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true);
+    }
+
+    /**
+     * Estimate the cost of a join, see above.
+     *
+     * @param outerIsTable
+     *            true if the left-hand side of the query is the table
+     *            j.t1Alias itself, rather than a join that includes it
+     * @param innerIsTable
+     *            true if the right-hand side of the query is the table
+     *            j.t2Alias itself, rather than a join that includes it
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean outerIsTable, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
@@ -111,11 +150,82 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-        	//change
+            if (j.p == Predicate.Op.EQUALS && innerIsTable && canProbe(j)) {
+                // IndexNestedLoopJoin: read the left side, and look each of
+                // its tuples up in the index: about one leaf page read, and
+                // a binary search's worth of comparisons
+                double pageCost = Math.min(cost2,
+                        cost2 * tuplesPerPage(j.t2Alias) / Math.max(1, card2));
+                return cost1 + card1 * (pageCost + log2(card2));
+            }
+            if (j.p == Predicate.Op.EQUALS && outerIsTable && innerIsTable
+                    && p.isScannedInOrder(j.t1Alias, j.f1QuantifiedName)
+                    && p.isScannedInOrder(j.t2Alias, j.f2QuantifiedName)) {
+                // SortMergeJoin of inputs already in order, as
+                // instantiateJoin builds for them: read both sides and merge
+                return cost1 + cost2 + card1 + card2;
+            }
+            if (j.p == Predicate.Op.EQUALS) {
+                // HashEquiJoin: hash the left side and probe it with the
+                // right side.  If the left side does not fit in memory, all
+                // but one partition of each side is written out and read
+                // back once more.
+                double cost = cost1 + HASH_BUILD_COST * card1 + cost2 + card2;
+                if (card1 > HashEquiJoin.MAP_SIZE) {
+                    cost += 2 * (1 - 1.0 / HashEquiJoin.PARTITIONS) * (cost1 + cost2);
+                }
+                return cost;
+            }
+            if (j.p != Predicate.Op.LIKE) {
+                // SortMergeJoin: read both sides once, sort them, and merge,
+                // emitting about as many tuples as estimateTableJoinCardinality
+                // expects: nearly all pairs for NOT_EQUALS, 30% for a range
+                double output = (double) card1 * card2;
+                if (j.p != Predicate.Op.NOT_EQUALS) {
+                    output *= 0.3;
+                }
+                return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2
+                        + output;
+            }
+            // nested loops
             return cost1 + card1 * cost2 + card1 * card2;
         }
     }
 
+    /** @return the number of comparisons to sort card tuples */
+    static double sortCost(int card) {
+        return card * log2(card);
+    }
+
+    private static double log2(int card) {
+        return card > 1 ? Math.log(card) / Math.log(2) : 0;
+    }
+
+    /**
+     * @return true if the join's right-hand table is an unfiltered BTreeFile
+     *         keyed on its join field, which instantiateJoin joins with an
+     *         IndexNestedLoopJoin
+     */
+    private boolean canProbe(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null || p.hasFilter(j.t2Alias))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return false;
+        try {
+            return f.getTupleDesc().fieldNameToIndex(j.f2PureName) == ((BTreeFile) f).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /** @return the number of tuples of the table with the specified alias in a page */
+    private int tuplesPerPage(String alias) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(p.getTableId(alias));
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -289,6 +399,10 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
     	int numJoinNodes = this.joins.size();
+        if (numJoinNodes == 0) {
+            // a query on one table: nothing to order
+            return this.joins;
+        }
         PlanCache memo = new PlanCache();
         for (int i = 1; i <= numJoinNodes; i ++) {
             Set<Set<LogicalJoinNode>> setOfSubset = this.enumerateSubsets(this.joins, i);
@@ -434,11 +548,17 @@ public class JoinOptimizer {
             }
         }
 
+        // a side is a table unless it is the join of prevBest
+        boolean t1IsTable = news.isEmpty() || !doesJoin(prevBest, j.t1Alias);
+        boolean t2IsTable = news.isEmpty() || doesJoin(prevBest, j.t1Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                t1IsTable, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                t2IsTable, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -2,22 +2,62 @@ package simpledb;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager keeps page-level shared and exclusive locks.  Every page has
+ * a queue of pending requests that are granted in FIFO order: a shared
+ * request only waits for the exclusive holder and for exclusive requests
+ * queued ahead of it, so consecutive shared requests are granted together,
+ * while an exclusive request waits for every holder and every request ahead
+ * of it.  A lock upgrade goes to the front of the queue.  Blocked
+ * transactions park on the page's Condition and are woken when a lock on
+ * the page is released or a request leaves the queue.
+ * <p>
+ * Deadlocks are found incrementally.  The waits-for graph keeps the
+ * outgoing edges of every waiting transaction, and a waiter whose blockers
+ * change searches for a cycle through itself only, since the graph had no
+ * cycle before its edges were added.  The youngest transaction on the cycle
+ * is chosen as the victim: if that is not the waiter itself, the victim is
+ * marked and woken, and throws TransactionAbortedException from its own
+ * wait.  No global monitor is taken.
+ */
 public class LockManager {
-    private final ConcurrentHashMap<PageId, Object> locks;
-    private final ConcurrentHashMap<PageId, TransactionId> exclusiveLocks;
-    private final ConcurrentHashMap<PageId, ConcurrentLinkedDeque<TransactionId>> sharedLocks;
+    private final ConcurrentHashMap<PageId, LockState> locks;
     private final ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<PageId>> transactionHoldLocks;
     private final ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<PageId>> transactionHoldXLocks;
-    private final ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<TransactionId>> dependencyGraph;
+    private final ConcurrentHashMap<TransactionId, Set<TransactionId>> dependencyGraph;
+    private final ConcurrentHashMap<TransactionId, LockState> waitingOn;
+    private final Set<TransactionId> victims;
+
+    /** A request waiting in a page's queue. */
+    private static class LockRequest {
+        final TransactionId tid;
+        final boolean exclusive;
+
+        LockRequest(TransactionId tid, boolean exclusive) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /** The holders and the queue of one page, guarded by latch. */
+    private static class LockState {
+        final ReentrantLock latch = new ReentrantLock();
+        final Condition changed = latch.newCondition();
+        final LinkedHashSet<TransactionId> sharers = new LinkedHashSet<>();
+        final LinkedList<LockRequest> queue = new LinkedList<>();
+        TransactionId exclusive;
+    }
 
     private LockManager() {
         locks = new ConcurrentHashMap<>();
-        sharedLocks = new ConcurrentHashMap<>();
-        exclusiveLocks = new ConcurrentHashMap<>();
         transactionHoldLocks = new ConcurrentHashMap<>();
         transactionHoldXLocks = new ConcurrentHashMap<>();
         dependencyGraph = new ConcurrentHashMap<>();
+        waitingOn = new ConcurrentHashMap<>();
+        victims = ConcurrentHashMap.newKeySet();
     }
 
     public static LockManager GetLockManager() {
@@ -26,123 +66,236 @@ public class LockManager {
 
 
     private boolean hasLock(TransactionId tid, PageId pid, boolean isReadOnly) {
-        if (exclusiveLocks.containsKey(pid) && tid.equals(exclusiveLocks.get(pid))) {
-            return true;
+        LockState state = locks.get(pid);
+        if (state == null) {
+            return false;
+        }
+        state.latch.lock();
+        try {
+            if (tid.equals(state.exclusive)) {
+                return true;
+            }
+            return isReadOnly && state.sharers.contains(tid);
+        } finally {
+            state.latch.unlock();
         }
-        return isReadOnly && sharedLocks.containsKey(pid) && sharedLocks.get(pid).contains(tid);
     }
 
-    private Object getLock(PageId pid) {
-        locks.putIfAbsent(pid, new Object());
-        return locks.get(pid);
+    private LockState getLock(PageId pid) {
+        return locks.computeIfAbsent(pid, k -> new LockState());
     }
 
     public boolean acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
         if (perm == Permissions.READ_ONLY) {
             if (hasLock(tid, pid, true)) return true;
-            acquireSLock(tid, pid);
+            acquire(tid, pid, false);
         } else if (perm == Permissions.READ_WRITE) {
             if (hasLock(tid, pid, false)) return true;
-            acquireXLock(tid, pid);
+            acquire(tid, pid, true);
         }
         updateTransactionLocks(tid, pid);
         return true;
     }
 
-    private void acquireSLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
-        Object lock = getLock(pid);
-
-        while (true) {
-            synchronized (lock) {
-                TransactionId holder = exclusiveLocks.get(pid);
-                boolean notBlocked = (holder == null || holder.equals(tid));
+    private void acquire(TransactionId tid, PageId pid, boolean exclusive) throws TransactionAbortedException {
+        LockState state = getLock(pid);
+        LockRequest req = new LockRequest(tid, exclusive);
+        boolean granted = false;
 
-                if (notBlocked) {
+        state.latch.lock();
+        try {
+            if (exclusive && state.sharers.contains(tid)) {
+                state.queue.addFirst(req);
+            } else {
+                state.queue.addLast(req);
+            }
+            waitingOn.put(tid, state);
+            while (true) {
+                Set<TransactionId> blockers = getBlockers(state, req);
+                if (blockers.isEmpty()) {
+                    state.queue.remove(req);
+                    if (exclusive) {
+                        addXTransaction(state, pid, tid);
+                    } else {
+                        state.sharers.add(tid);
+                    }
+                    granted = true;
+                    victims.remove(tid);
                     removeDependency(tid);
-                    addSTransaction(pid, tid);
                     return;
                 }
-                ArrayList<TransactionId> holders = new ArrayList<>();
-                holders.add(holder);
-                updateDependency(tid, holders);
+                // the cycle this waiter was chosen to break may have been
+                // broken since by another transaction releasing its locks
+                if (victims.remove(tid) && isDeadlocked(tid, blockers)) {
+                    throw new TransactionAbortedException();
+                }
+                TransactionId victim = updateDependency(tid, blockers);
+                if (victim != null) {
+                    // wake the victim without holding this page's latch, so
+                    // two waiters never hold one latch and wait for another;
+                    // the loop recomputes the blockers after relocking
+                    state.latch.unlock();
+                    try {
+                        abortWaiter(victim);
+                    } finally {
+                        state.latch.lock();
+                    }
+                    continue;
+                }
+                state.changed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            // a waiter that gives up (deadlock, interrupt or a stopped thread)
+            // must leave the queue, or everyone behind it waits forever
+            if (!state.latch.isHeldByCurrentThread()) {
+                state.latch.lock();
             }
+            waitingOn.remove(tid);
+            if (!granted) {
+                state.queue.remove(req);
+                removeDependency(tid);
+                state.changed.signalAll();
+            }
+            state.latch.unlock();
         }
     }
 
-    private void acquireXLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
-        Object lock = getLock(pid);
-
-        while (true) {
-            synchronized (lock) {
-                ArrayList<TransactionId> holders = new ArrayList<>();
-                if (exclusiveLocks.containsKey(pid)) {
-                    holders.add(exclusiveLocks.get(pid));
-                }
-                if (sharedLocks.containsKey(pid)) {
-                    holders.addAll(sharedLocks.get(pid));
-                }
-
-                boolean notBlocked = holders.size() == 0 || (holders.size() == 1 && holders.get(0).equals(tid));
-
-                if (notBlocked) {
-                    removeDependency(tid);
-                    addXTransaction(pid, tid);
-                    return;
+    /**
+     * Returns the transactions the specified request has to wait for: the
+     * incompatible holders of the page and the incompatible requests queued
+     * ahead of it.  Must be called with the page latch held.
+     */
+    private Set<TransactionId> getBlockers(LockState state, LockRequest req) {
+        Set<TransactionId> blockers = new LinkedHashSet<>();
+        if (state.exclusive != null && !state.exclusive.equals(req.tid)) {
+            blockers.add(state.exclusive);
+        }
+        if (req.exclusive) {
+            for (TransactionId sharer : state.sharers) {
+                if (!sharer.equals(req.tid)) {
+                    blockers.add(sharer);
                 }
-                updateDependency(tid, holders);
             }
         }
+        for (LockRequest ahead : state.queue) {
+            if (ahead == req) {
+                break;
+            }
+            if ((req.exclusive || ahead.exclusive) && !ahead.tid.equals(req.tid)) {
+                blockers.add(ahead.tid);
+            }
+        }
+        return blockers;
     }
 
-    private void addSTransaction(PageId pid, TransactionId tid) {
-        sharedLocks.putIfAbsent(pid, new ConcurrentLinkedDeque<>());
-        sharedLocks.get(pid).add(tid);
-    }
-
-    private void addXTransaction(PageId pid, TransactionId tid) {
-        exclusiveLocks.put(pid, tid);
+    private void addXTransaction(LockState state, PageId pid, TransactionId tid) {
+        state.exclusive = tid;
         transactionHoldXLocks.putIfAbsent(tid, new ConcurrentLinkedDeque<>());
         transactionHoldXLocks.get(tid).add(pid);
     }
 
 
     private void removeDependency(TransactionId tid) {
-        synchronized (dependencyGraph) {
-            dependencyGraph.remove(tid);
-            for (TransactionId curtid : dependencyGraph.keySet()) {
-                dependencyGraph.get(curtid).remove(tid);
-            }
-        }
+        // edges into tid stay: the transactions waiting for it are still
+        // blocked, and are woken to recompute their edges when tid releases
+        dependencyGraph.remove(tid);
     }
 
-    private void updateDependency(TransactionId acquirer, ArrayList<TransactionId> holders)
+    /**
+     * Replaces the outgoing edges of the specified waiter and, if they
+     * changed, looks for a cycle through it.
+     *
+     * @return the victim that must be woken to break a cycle, or null if
+     *         there is no cycle
+     * @throws TransactionAbortedException if the waiter itself is the victim
+     */
+    private TransactionId updateDependency(TransactionId acquirer, Set<TransactionId> holders)
             throws TransactionAbortedException {
-        dependencyGraph.putIfAbsent(acquirer, new ConcurrentLinkedDeque<>());
-        boolean hasChange = false;
-        ConcurrentLinkedDeque<TransactionId> childs = dependencyGraph.get(acquirer);
-        for (TransactionId holder : holders) {
-            if (!childs.contains(holder) && !holder.equals(acquirer)) {
-                hasChange = true;
-                dependencyGraph.get(acquirer).add(holder);
+        Set<TransactionId> childs = dependencyGraph.computeIfAbsent(acquirer, k -> ConcurrentHashMap.newKeySet());
+        // a waiter is woken whenever the page changes, so only search for a
+        // cycle when the set of transactions it waits for actually changed
+        if (childs.equals(holders)) {
+            return null;
+        }
+        childs.retainAll(holders);
+        childs.addAll(holders);
+
+        List<TransactionId> cycle = findCycle(acquirer);
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = acquirer;
+        for (TransactionId t : cycle) {
+            if (t.getId() > victim.getId()) {
+                victim = t;
             }
         }
-        if (hasChange) {
-            checkDeadLock(acquirer, new HashSet<>());
+        if (victim.equals(acquirer)) {
+            throw new TransactionAbortedException();
         }
+        return victim;
     }
 
+    /**
+     * Sets the outgoing edges of the specified waiter and returns true if
+     * it is still on a cycle of the waits-for graph.
+     */
+    private boolean isDeadlocked(TransactionId waiter, Set<TransactionId> holders) {
+        Set<TransactionId> childs = dependencyGraph.computeIfAbsent(waiter, k -> ConcurrentHashMap.newKeySet());
+        childs.retainAll(holders);
+        childs.addAll(holders);
+        return findCycle(waiter) != null;
+    }
 
-    private void checkDeadLock(TransactionId root, HashSet<TransactionId> visit) throws TransactionAbortedException {
-        // DFS Checking self-loop
-        if (!dependencyGraph.containsKey(root))
-            return;
-        for (TransactionId child : dependencyGraph.get(root)) {
-            if (visit.contains(child)) {
-                throw new TransactionAbortedException();
+    /**
+     * Returns the transactions on a cycle of the waits-for graph through
+     * the specified transaction, or null if there is none.
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        HashMap<TransactionId, TransactionId> parent = new HashMap<>();
+        ArrayDeque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(start, null);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId cur = stack.pop();
+            Set<TransactionId> childs = dependencyGraph.get(cur);
+            if (childs == null) {
+                continue;
+            }
+            for (TransactionId child : childs) {
+                if (child.equals(start)) {
+                    List<TransactionId> cycle = new ArrayList<>();
+                    for (TransactionId t = cur; t != null; t = parent.get(t)) {
+                        cycle.add(t);
+                    }
+                    return cycle;
+                }
+                if (!parent.containsKey(child)) {
+                    parent.put(child, cur);
+                    stack.push(child);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the specified waiting transaction as a deadlock victim and wakes
+     * it, so it gives up its wait and aborts.
+     */
+    private void abortWaiter(TransactionId victim) {
+        victims.add(victim);
+        LockState state = waitingOn.get(victim);
+        if (state != null) {
+            state.latch.lock();
+            try {
+                state.changed.signalAll();
+            } finally {
+                state.latch.unlock();
             }
-            visit.add(child);
-            checkDeadLock(child, visit);
-            visit.remove(child);
         }
     }
 
@@ -153,22 +306,28 @@ public class LockManager {
 
 
     public void releasePage(TransactionId tid, PageId pid) {
-        if (holdsLock(tid, pid)) {
-            Object lock = getLock(pid);
-            synchronized (lock) {
-                if (sharedLocks.containsKey(pid)) {
-                    sharedLocks.get(pid).remove(tid);
-                }
-                if (exclusiveLocks.containsKey(pid) && exclusiveLocks.get(pid).equals(tid)) {
-                    exclusiveLocks.remove(pid);
-                }
-                if (transactionHoldLocks.containsKey(tid)) {
-                    transactionHoldLocks.get(tid).remove(pid);
-                }
-                if (transactionHoldXLocks.containsKey(tid)) {
-                    transactionHoldXLocks.get(tid).remove(pid);
-                }
+        LockState state = locks.get(pid);
+        if (state == null) {
+            return;
+        }
+        state.latch.lock();
+        try {
+            boolean released = state.sharers.remove(tid);
+            if (tid.equals(state.exclusive)) {
+                state.exclusive = null;
+                released = true;
+            }
+            if (transactionHoldLocks.containsKey(tid)) {
+                transactionHoldLocks.get(tid).remove(pid);
+            }
+            if (transactionHoldXLocks.containsKey(tid)) {
+                transactionHoldXLocks.get(tid).remove(pid);
+            }
+            if (released && !state.queue.isEmpty()) {
+                state.changed.signalAll();
             }
+        } finally {
+            state.latch.unlock();
         }
     }
 
@@ -178,11 +337,13 @@ public class LockManager {
                 releasePage(tid, pid);
             }
         }
+        transactionHoldLocks.remove(tid);
         transactionHoldXLocks.remove(tid);
+        victims.remove(tid);
     }
 
     public boolean holdsLock(TransactionId tid, PageId pid) {
-        return hasLock(tid, pid, true) || hasLock(tid, pid, false);
+        return hasLock(tid, pid, true);
     }
 
     public ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<PageId>> getTransactionDirtiedPages() {
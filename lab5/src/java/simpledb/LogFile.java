@@ -3,7 +3,13 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -39,17 +45,21 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The file given to the constructor is the log's header.  Its first
+long integer is the LSN of the last written checkpoint, or -1 if there
+are no checkpoints, and its second long integer is the LSN of the first
+record in the log.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records themselves are kept in segment files of a fixed
+size next to the header; see {@link LogSegments}.  An LSN is the
+position of a byte in the log, and locates it in a segment.  Log records
+are variable length, and may span two segments.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer LSN representing
+the position in the log where the record began.
 
 <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
 CHECKPOINT
@@ -58,7 +68,7 @@ CHECKPOINT
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
+accessed with the LogFile.readPageData() and LogFile.putPageData()
 methods.  See LogFile.print() for an example.
 
 <li> CHECKPOINT records consist of active transactions at the time
@@ -69,12 +79,24 @@ for each active transaction.
 
 </ul>
 
+<p> Records are not written to the segments field by field.  They are
+serialized into an in-memory log tail, a direct ByteBuffer, which is
+written out in large chunks when it fills up, when the log is forced, and
+before the log is read back.  A record is identified by the LSN of its
+first byte, and {@link #flushToLSN} makes a record durable, which is a
+no-op if a later force already covered it.
+
+<p> LSNs never change.  Truncating the log after a checkpoint moves the
+header's first record LSN forward and deletes the segments that lie
+entirely before it, without copying any record.
+
 */
 
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile header;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -86,13 +108,55 @@ public class LogFile {
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+
+    /** Name of the system property giving the size of a log segment, in
+        bytes. */
+    public static final String SEGMENT_SIZE_PROPERTY = "simpledb.log.segmentsize";
+    public static final long DEFAULT_SEGMENT_SIZE = 1 << 20;
 
     long currentOffset = -1;//protected by this
+
+    /** Size of the in-memory log tail, in bytes. */
+    public static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    private ByteBuffer tail = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE); // protected by this
+    private long tailStart = 0; // LSN of the first byte in tail, protected by this
+    private long logStart = 0; // LSN of the first record in the log, protected by this
+    private final AtomicLong durableLSN = new AtomicLong(); // all log bytes before it are on disk
+    private final HashMap<String, byte[]> utfCache = new HashMap<String, byte[]>(); // protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** Name of the system property that turns group commit on. */
+    public static final String GROUP_COMMIT_PROPERTY = "simpledb.log.groupcommit";
+    /** Name of the system property giving the longest time, in
+        microseconds, a group commit leader waits for more committers. */
+    public static final String GROUP_COMMIT_WAIT_PROPERTY = "simpledb.log.groupcommit.waitmicros";
+    /** Name of the system property giving the number of commits after
+        which a group commit leader stops waiting and forces the log. */
+    public static final String GROUP_COMMIT_BATCH_PROPERTY = "simpledb.log.groupcommit.batch";
+
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MICROS = 0;
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 32;
+
+    private volatile boolean groupCommit;
+    private volatile long groupCommitWaitNanos;
+    private volatile int groupCommitBatch;
+
+    private volatile long commitsWritten = 0; // written under this
+    private long commitsDurable = 0; // protected by commitLock
+    private boolean flushing = false; // protected by commitLock
+    private final Object commitLock = new Object();
+    private final AtomicLong forceCount = new AtomicLong();
+    // held from taking the unforced segments until they are forced, and
+    // taken before the log monitor is released, so a force that finds no
+    // segments left waits for the one that took them; never take the log
+    // monitor while holding it
+    private final ReentrantLock forceLock = new ReentrantLock();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -105,9 +169,25 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, Long.getLong(SEGMENT_SIZE_PROPERTY, DEFAULT_SEGMENT_SIZE));
+    }
+
+    /** Constructor.
+        Back the log with the specified header file and segments of the
+        specified size.
+
+        @param f The log file's name
+        @param segmentSize The size of a log segment, in bytes
+        @see #LogFile(File)
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        header = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
         recoveryUndecided = true;
+        setGroupCommit(Boolean.getBoolean(GROUP_COMMIT_PROPERTY),
+                Long.getLong(GROUP_COMMIT_WAIT_PROPERTY, DEFAULT_GROUP_COMMIT_WAIT_MICROS),
+                Integer.getInteger(GROUP_COMMIT_BATCH_PROPERTY, DEFAULT_GROUP_COMMIT_BATCH));
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -127,17 +207,142 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            resetLog();
+        }
+    }
+
+    // throw out the whole log and start an empty one at LSN 0
+    private void resetLog() throws IOException {
+        tail.clear();
+        segments.clear();
+        writeHeader(NO_CHECKPOINT_ID, 0);
+        currentOffset = 0;
+        tailStart = 0;
+        logStart = 0;
+    }
+
+    // write and force the header: the checkpoint LSN and the LSN of the
+    // first record in the log
+    private void writeHeader(long cpLoc, long start) throws IOException {
+        header.seek(0);
+        header.writeLong(cpLoc);
+        header.writeLong(start);
+        header.getChannel().force(true);
+    }
+
+    // make sure the log tail has room for n more bytes, writing it out
+    // (or, for a huge value, growing it) if needed
+    private void ensureRoom(int n) throws IOException {
+        if (tail.remaining() < n) {
+            flushTail();
+            if (tail.capacity() < n) {
+                tail = ByteBuffer.allocateDirect(n);
+            }
         }
     }
 
+    private void putInt(int v) throws IOException {
+        ensureRoom(INT_SIZE);
+        tail.putInt(v);
+    }
+
+    private void putLong(long v) throws IOException {
+        ensureRoom(LONG_SIZE);
+        tail.putLong(v);
+    }
+
+    private void putBytes(byte[] b) throws IOException {
+        ensureRoom(b.length);
+        tail.put(b);
+    }
+
+    // same encoding as RandomAccessFile.writeUTF; the strings logged are
+    // class names, so the encodings are cached
+    private void putUTF(String str) throws IOException {
+        byte[] b = utfCache.get(str);
+        if (b == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(str);
+            b = bytes.toByteArray();
+            utfCache.put(str, b);
+        }
+        putBytes(b);
+    }
+
+    // LSN just past the last byte appended to the log
+    private long endOffset() {
+        return tailStart + tail.position();
+    }
+
+    /** Write the log tail to the segments, without forcing it.  Must be
+        called before reading the log. */
+    private void flushTail() throws IOException {
+        tail.flip();
+        int n = tail.remaining();
+        segments.write(tail, tailStart);
+        tail.clear();
+        tailStart += n;
+    }
+
+    /** Returns the LSN that the next log record will get. */
+    public synchronized long getCurrentLSN() {
+        return endOffset();
+    }
+
+    /** Returns the number of segment files the log occupies. */
+    synchronized int getSegmentCount() {
+        return segments.list().size();
+    }
+
+    /** Returns the LSN up to which the log is known to be on disk: every
+        record that starts before it is durable. */
+    public long getDurableLSN() {
+        return durableLSN.get();
+    }
+
+    /** Make sure that the log record with the specified LSN, and every
+        record before it, is on disk.  Forces the log only if no earlier
+        force has covered the record already.
+
+        @param lsn the LSN of a log record, as returned by logWrite
+    */
+    public void flushToLSN(long lsn) throws IOException {
+        if (lsn < durableLSN.get()) {
+            return;
+        }
+        force();
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Returns the number of times the log has been forced to disk. */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+
+    /** Configure group commit.  With group commit, concurrent committers
+        append their COMMIT records and wait while one of them, the
+        leader, forces the log once for the whole batch.  The leader first
+        waits up to maxWaitMicros for more committers, but stops waiting
+        as soon as maxBatch commits are pending.
+
+        @param enabled whether logCommit uses group commit
+        @param maxWaitMicros the longest time the leader waits to fill a batch
+        @param maxBatch the number of pending commits that ends the wait
+    */
+    public void setGroupCommit(boolean enabled, long maxWaitMicros, int maxBatch) {
+        groupCommit = enabled;
+        groupCommitWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        groupCommitBatch = maxBatch;
+    }
+
+    /** Returns true if the specified transaction has logged a BEGIN record
+        and has not completed, so that rollback can undo its updates. */
+    public synchronized boolean isLogged(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -158,10 +363,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                putInt(ABORT_RECORD);
+                putLong(tid.getId());
+                putLong(currentOffset);
+                currentOffset = endOffset();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,21 +374,112 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  With group commit, the force may be
+        done by another committer on behalf of this one.
 
         @param tid The committing transaction.
+        @see #setGroupCommit
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitNo;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            putInt(COMMIT_RECORD);
+            putLong(tid.getId());
+            putLong(currentOffset);
+            currentOffset = endOffset();
+            tidToFirstLogRecord.remove(tid.getId());
+            if (!groupCommit) {
+                force();
+                return;
+            }
+            commitNo = ++commitsWritten;
+        }
+        awaitDurable(commitNo);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Wait until the specified COMMIT record is on disk.  The first
+        committer to find no force in progress becomes the leader: it waits
+        for the batch to fill up, forces the log without holding the log
+        monitor, so the next batch can keep appending, and wakes everybody
+        its force covered. */
+    private void awaitDurable(long commitNo) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                synchronized (commitLock) {
+                    if (commitsDurable >= commitNo) {
+                        return;
+                    }
+                    if (flushing) {
+                        commitLock.notifyAll(); // the leader may be waiting for us
+                        try {
+                            commitLock.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                        continue;
+                    }
+                    flushing = true;
+                    long deadline = System.nanoTime() + groupCommitWaitNanos;
+                    long left;
+                    while (commitsWritten - commitsDurable < groupCommitBatch
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(commitLock, left);
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+
+                long target = 0;
+                boolean forced = false;
+                try {
+                    List<FileChannel> channels;
+                    long endLSN;
+                    synchronized (this) {
+                        target = commitsWritten;
+                        flushTail();
+                        endLSN = tailStart;
+                        channels = segments.takeUnforced();
+                        forceLock.lock();
+                    }
+                    boolean closed = false;
+                    try {
+                        for (FileChannel channel : channels) {
+                            channel.force(true);
+                        }
+                    } catch (ClosedChannelException e) {
+                        closed = true;
+                    } finally {
+                        forceLock.unlock();
+                    }
+                    if (closed) {
+                        force(); // the log was reset or shut down
+                    } else {
+                        forceCount.incrementAndGet();
+                        durableLSN.accumulateAndGet(endLSN, Math::max);
+                    }
+                    forced = true;
+                } finally {
+                    synchronized (commitLock) {
+                        flushing = false;
+                        if (forced && target > commitsDurable) {
+                            commitsDurable = target;
+                        }
+                        commitLock.notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -192,13 +488,16 @@ public class LogFile {
         @param before The before image of the page
         @param after The after image of the page
 
+        @return the LSN of the record
         @see simpledb.Page#getBeforeImage
+        @see #flushToLSN
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
+        long lsn = currentOffset;
         /* update record conists of
 
            record type
@@ -207,18 +506,20 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        putInt(UPDATE_RECORD);
+        putLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        putPageData(before);
+        putPageData(after);
+        putLong(currentOffset);
+        currentOffset = endOffset();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    // append page data to the log tail
+    private void putPageData(Page p) throws IOException {
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -230,52 +531,53 @@ public class LogFile {
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        putUTF(p.getClass().getName());
+        putUTF(pid.getClass().getName());
 
-        raf.writeInt(pageInfo.length);
+        putInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            putInt(pageInfo[i]);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        putInt(pageData.length);
+        putBytes(pageData);
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    Page readPageData(LogSegments in) throws IOException {
         PageId pid;
         Page newPage = null;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        String pageClassName = in.readUTF();
+        String idClassName = in.readUTF();
 
         try {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
+            int numIdArgs = in.readInt();
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+                idArgs[i] = new Integer(in.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            pid = (PageId)findConstructor(idClass, numIdArgs).newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+            int pageSize = in.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            in.readFully(pageData); //read before image
+
+            // B+ tree node pages also take the index's key field
+            Constructor<?> pageConst = findConstructor(pageClass, 3);
+            Object[] pageArgs;
+            if (pageConst != null && pageConst.getParameterTypes()[2] == int.class) {
+                BTreeFile bf = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pageArgs = new Object[] { pid, pageData, bf.keyField() };
+            } else {
+                pageConst = findConstructor(pageClass, 2);
+                pageArgs = new Object[] { pid, pageData };
+            }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +597,46 @@ public class LogFile {
 
     }
 
+    /** Returns the constructor of c with the specified number of
+        parameters, or null if there is none. */
+    private static Constructor<?> findConstructor(Class<?> c, int numArgs) {
+        for (Constructor<?> cons : c.getConstructors()) {
+            Class<?>[] params = cons.getParameterTypes();
+            // pages also have constructors that read from a ByteBuffer
+            if (params.length == numArgs
+                    && (numArgs < 2 || params[1] != ByteBuffer.class)) {
+                return cons;
+            }
+        }
+        return null;
+    }
+
+    /** Skip over page data written by putPageData, without
+        instantiating the page. */
+    void skipPageData(LogSegments in) throws IOException {
+        in.readUTF();
+        in.readUTF();
+        int numIdArgs = in.readInt();
+        in.seek(in.getFilePointer() + (long) numIdArgs * INT_SIZE);
+        int pageSize = in.readInt();
+        in.seek(in.getFilePointer() + pageSize);
+    }
+
+    /** Skip over the body of a record of the specified type, leaving the
+        file pointer on the record's trailing start offset. */
+    private void skipRecordBody(LogSegments in, int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            skipPageData(in);
+            skipPageData(in);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = in.readInt();
+            in.seek(in.getFilePointer() + (long) numXactions * 2 * LONG_SIZE);
+            break;
+        }
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -307,11 +649,11 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        putInt(BEGIN_RECORD);
+        putLong(tid.getId());
+        putLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = endOffset();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -323,33 +665,31 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = endOffset();
+                putInt(CHECKPOINT_RECORD);
+                putLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                putInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    putLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    putLong(tidToFirstLogRecord.get(key));
                 }
+                putLong(currentOffset);
+                currentOffset = endOffset();
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                //once the CP is on disk, make sure the CP location in
+                // the header is updated
+                force();
+                writeHeader(startCpOffset, logStart);
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -361,95 +701,45 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        flushTail();
+        header.seek(0);
+        long cpLoc = header.readLong();
 
         long minLogRecord = cpLoc;
 
         if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+            segments.seek(cpLoc);
+            int cpType = segments.readInt();
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            long cpTid = segments.readLong();
 
             if (cpType != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            int numOutstanding = segments.readInt();
 
             for (int i = 0; i < numOutstanding; i++) {
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+                long tid = segments.readLong();
+                long firstLogRecord = segments.readLong();
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
             }
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        // we can truncate everything before minLogRecord.  LSNs do not
+        // change, so no record is rewritten: the header moves the start of
+        // the log forward, and then the segments before it are deleted
+        if (cpLoc == -1L || minLogRecord <= logStart) {
+            return;
         }
+        writeHeader(cpLoc, minLogRecord);
+        logStart = minLogRecord;
+        int deleted = segments.deleteBefore(minLogRecord);
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
+        Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord + " ; DELETED " + deleted + " SEGMENTS");
         //print();
     }
 
@@ -467,6 +757,36 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    throw new NoSuchElementException("no BEGIN record for transaction " + tid.getId());
+                }
+
+                // the first before image of each page is its state before
+                // the transaction touched it
+                HashMap<PageId, Page> beforeImages = new HashMap<PageId, Page>();
+                flushTail();
+                segments.seek(firstRecord);
+                while (segments.getFilePointer() < currentOffset) {
+                    int type = segments.readInt();
+                    long recordTid = segments.readLong();
+                    if (type == UPDATE_RECORD && recordTid == tid.getId()) {
+                        Page before = readPageData(segments);
+                        skipPageData(segments);
+                        if (!beforeImages.containsKey(before.getId())) {
+                            beforeImages.put(before.getId(), before);
+                        }
+                    } else {
+                        skipRecordBody(segments, type);
+                    }
+                    segments.readLong();
+                }
+
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(pid);
+                }
             }
         }
     }
@@ -478,7 +798,8 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            header.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -494,6 +815,117 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                flushTail();
+                if (header.length() < HEADER_SIZE) {
+                    resetLog();
+                    return;
+                }
+                header.seek(0);
+                long cpLoc = header.readLong();
+                long start = header.readLong();
+                if (start < 0 || start > segments.length()) {
+                    // the header does not describe these segments
+                    resetLog();
+                    return;
+                }
+
+                // analysis: find the outcome of every transaction and the
+                // position of every update record
+                HashMap<Long,Long> live = new HashMap<Long,Long>();
+                HashSet<Long> finished = new HashSet<Long>();
+                HashSet<Long> committed = new HashSet<Long>();
+                ArrayList<Long> updates = new ArrayList<Long>();
+                ArrayList<Long> updateTids = new ArrayList<Long>();
+                segments.seek(start);
+                long end = start;
+                try {
+                    while (end < segments.length()) {
+                        int type = segments.readInt();
+                        long recordTid = segments.readLong();
+                        switch (type) {
+                        case BEGIN_RECORD:
+                            live.put(recordTid, end);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            if (type == COMMIT_RECORD) {
+                                committed.add(recordTid);
+                            }
+                            finished.add(recordTid);
+                            live.remove(recordTid);
+                            break;
+                        case UPDATE_RECORD:
+                            updates.add(end);
+                            updateTids.add(recordTid);
+                            skipRecordBody(segments, type);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = segments.readInt();
+                            while (numXactions-- > 0) {
+                                long xid = segments.readLong();
+                                long xoffset = segments.readLong();
+                                if (!finished.contains(xid) && !live.containsKey(xid)) {
+                                    live.put(xid, xoffset);
+                                }
+                            }
+                            break;
+                        default:
+                            throw new EOFException("bad record type " + type);
+                        }
+                        segments.readLong();
+                        end = segments.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    // the last record was only partly written; drop it
+                }
+                segments.setLength(end);
+
+                // redo: repeat the updates of every transaction that did not
+                // abort, in log order.  Pages were flushed when the last
+                // checkpoint was taken, so earlier records are on disk.
+                HashSet<PageId> touched = new HashSet<PageId>();
+                for (int i = 0; i < updates.size(); i++) {
+                    long recordTid = updateTids.get(i);
+                    if (updates.get(i) < cpLoc || live.containsKey(recordTid)
+                            || (finished.contains(recordTid) && !committed.contains(recordTid))) {
+                        continue;
+                    }
+                    segments.seek(updates.get(i) + INT_SIZE + LONG_SIZE);
+                    skipPageData(segments);
+                    Page after = readPageData(segments);
+                    Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
+                    touched.add(after.getId());
+                }
+
+                // undo: restore the before images of the losers, newest
+                // first, so each page ends at its state before the loser
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    if (!live.containsKey(updateTids.get(i))) {
+                        continue;
+                    }
+                    segments.seek(updates.get(i) + INT_SIZE + LONG_SIZE);
+                    Page before = readPageData(segments);
+                    Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                    touched.add(before.getId());
+                }
+                for (PageId pid : touched) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+
+                // record that the losers are rolled back, so a later
+                // recovery does not undo them again
+                currentOffset = end;
+                tailStart = end;
+                logStart = start;
+                for (Long loser : live.keySet()) {
+                    totalRecords++;
+                    putInt(ABORT_RECORD);
+                    putLong(loser);
+                    putLong(currentOffset);
+                    currentOffset = endOffset();
+                }
+                force();
+                tidToFirstLogRecord.clear();
             }
          }
     }
@@ -503,8 +935,27 @@ public class LogFile {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force the log to disk.  Segments a group commit leader took before
+        this call are forced by the leader, so this waits for it to finish
+        before it counts their bytes as durable. */
+    public void force() throws IOException {
+        List<FileChannel> channels;
+        long endLSN;
+        synchronized (this) {
+            flushTail();
+            endLSN = tailStart;
+            channels = segments.takeUnforced();
+            forceLock.lock();
+        }
+        try {
+            for (FileChannel channel : channels) {
+                channel.force(true);
+            }
+        } finally {
+            forceLock.unlock();
+        }
+        forceCount.incrementAndGet();
+        durableLSN.accumulateAndGet(endLSN, Math::max);
     }
 
 }
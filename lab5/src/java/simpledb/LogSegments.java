@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * LogSegments stores the log as a sequence of fixed-size segment files.
+ * The log is addressed by LSN: segment n holds the bytes with LSNs from
+ * n * segmentSize up to (n + 1) * segmentSize, and a record may span two
+ * segments.  Segment n of the log named "log" is the file "log.n", with n
+ * padded to ten digits, in the same directory.
+ * <p>
+ * Truncating the front of the log deletes whole segment files, so it costs
+ * no I/O beyond the deletes.  Reads go through a file pointer like a
+ * RandomAccessFile; writes are positional.
+ * <p>
+ * LogSegments is not thread-safe; LogFile guards it with its monitor.
+ *
+ * @see LogFile
+ */
+class LogSegments {
+
+    private final File dir;
+    private final String prefix;
+    private final long segmentSize;
+
+    private final TreeMap<Long, RandomAccessFile> open = new TreeMap<Long, RandomAccessFile>();
+    private final LinkedHashSet<Long> unforced = new LinkedHashSet<Long>();
+    private final byte[] scratch = new byte[8];
+    private long end; // LSN just past the last byte on disk
+    private long pointer;
+
+    /**
+     * Opens the segments of the specified log, finding the end of the log
+     * from the last segment.
+     *
+     * @param log the log file that names the segments
+     * @param segmentSize the size of a segment, in bytes
+     */
+    LogSegments(File log, long segmentSize) throws IOException {
+        if (segmentSize < 1)
+            throw new IllegalArgumentException("segment size must be positive");
+        File abs = log.getAbsoluteFile();
+        this.dir = abs.getParentFile();
+        this.prefix = abs.getName() + ".";
+        this.segmentSize = segmentSize;
+        SortedSet<Long> existing = list();
+        if (existing.isEmpty()) {
+            end = 0;
+        } else {
+            long last = existing.last();
+            end = last * segmentSize + segmentFile(last).length();
+        }
+    }
+
+    /** Returns the size of a segment, in bytes. */
+    long segmentSize() {
+        return segmentSize;
+    }
+
+    private File segmentFile(long index) {
+        return new File(dir, prefix + String.format("%010d", index));
+    }
+
+    /** Returns the indexes of the segment files on disk, in order. */
+    SortedSet<Long> list() {
+        TreeSet<Long> indexes = new TreeSet<Long>();
+        String[] names = dir.list();
+        if (names == null) {
+            return indexes;
+        }
+        for (String name : names) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            try {
+                indexes.add(Long.parseLong(name.substring(prefix.length())));
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+        return indexes;
+    }
+
+    private RandomAccessFile segment(long index) throws IOException {
+        RandomAccessFile seg = open.get(index);
+        if (seg == null) {
+            seg = new RandomAccessFile(segmentFile(index), "rw");
+            open.put(index, seg);
+        }
+        return seg;
+    }
+
+    /** Returns the LSN just past the last byte written. */
+    long length() {
+        return end;
+    }
+
+    /** Sets the LSN of the next read. */
+    void seek(long lsn) {
+        pointer = lsn;
+    }
+
+    /** Returns the LSN of the next read. */
+    long getFilePointer() {
+        return pointer;
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to the log, starting at the
+     * specified LSN.  The bytes are not forced to disk.
+     */
+    void write(ByteBuffer buf, long lsn) throws IOException {
+        int limit = buf.limit();
+        try {
+            while (buf.hasRemaining()) {
+                long index = lsn / segmentSize;
+                long offset = lsn % segmentSize;
+                int n = (int) Math.min(buf.remaining(), segmentSize - offset);
+                buf.limit(buf.position() + n);
+                FileChannel channel = segment(index).getChannel();
+                while (buf.hasRemaining()) {
+                    offset += channel.write(buf, offset);
+                }
+                buf.limit(limit);
+                unforced.add(index);
+                lsn += n;
+            }
+        } finally {
+            buf.limit(limit);
+        }
+        end = Math.max(end, lsn);
+    }
+
+    /**
+     * Returns the channels of the segments written since the last force,
+     * and forgets them, so the caller can force them without holding the
+     * log's monitor.  Until the caller has forced them, a later force finds
+     * nothing to do, so it must wait for the caller before it treats their
+     * bytes as durable.
+     */
+    List<FileChannel> takeUnforced() throws IOException {
+        ArrayList<FileChannel> channels = new ArrayList<FileChannel>();
+        for (long index : unforced) {
+            RandomAccessFile seg = open.get(index);
+            if (seg != null) {
+                channels.add(seg.getChannel());
+            }
+        }
+        unforced.clear();
+        return channels;
+    }
+
+    /** Reads len bytes at the file pointer, crossing segments as needed. */
+    void readFully(byte[] b, int off, int len) throws IOException {
+        if (pointer + len > end) {
+            throw new EOFException();
+        }
+        while (len > 0) {
+            long index = pointer / segmentSize;
+            long offset = pointer % segmentSize;
+            int n = (int) Math.min(len, segmentSize - offset);
+            ByteBuffer buf = ByteBuffer.wrap(b, off, n);
+            FileChannel channel = segment(index).getChannel();
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position() - off) < 0) {
+                    throw new EOFException();
+                }
+            }
+            pointer += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    int readInt() throws IOException {
+        readFully(scratch, 0, 4);
+        return ((scratch[0] & 0xff) << 24) | ((scratch[1] & 0xff) << 16)
+                | ((scratch[2] & 0xff) << 8) | (scratch[3] & 0xff);
+    }
+
+    long readLong() throws IOException {
+        readFully(scratch, 0, 8);
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (scratch[i] & 0xff);
+        }
+        return v;
+    }
+
+    /** Reads a string written with DataOutput.writeUTF. */
+    String readUTF() throws IOException {
+        readFully(scratch, 0, 2);
+        int len = ((scratch[0] & 0xff) << 8) | (scratch[1] & 0xff);
+        byte[] encoded = new byte[len + 2];
+        encoded[0] = scratch[0];
+        encoded[1] = scratch[1];
+        readFully(encoded, 2, len);
+        return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+    }
+
+    /**
+     * Cuts the log off at the specified LSN, deleting the segments after
+     * it.
+     */
+    void setLength(long lsn) throws IOException {
+        long last = lsn / segmentSize;
+        for (long index : list()) {
+            if (index > last) {
+                delete(index);
+            } else if (index == last) {
+                segment(index).setLength(lsn % segmentSize);
+            }
+        }
+        end = lsn;
+    }
+
+    /**
+     * Deletes every segment whose bytes all come before the specified LSN.
+     *
+     * @return the number of segments deleted
+     */
+    int deleteBefore(long lsn) throws IOException {
+        int deleted = 0;
+        for (long index : list()) {
+            if ((index + 1) * segmentSize > lsn) {
+                break;
+            }
+            delete(index);
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /** Deletes every segment, leaving an empty log that starts at LSN 0. */
+    void clear() throws IOException {
+        for (long index : list()) {
+            delete(index);
+        }
+        end = 0;
+        pointer = 0;
+    }
+
+    private void delete(long index) throws IOException {
+        RandomAccessFile seg = open.remove(index);
+        if (seg != null) {
+            seg.close();
+        }
+        unforced.remove(index);
+        segmentFile(index).delete();
+    }
+
+    /** Closes every open segment file. */
+    void close() throws IOException {
+        for (RandomAccessFile seg : open.values()) {
+            seg.close();
+        }
+        open.clear();
+        unforced.clear();
+    }
+}
@@ -26,6 +26,7 @@ public class LogicalPlan {
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
+    private HashMap<String,DbIterator> scanMap; // subplanMap's table scans and filters, before the joins
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
@@ -44,6 +45,7 @@ public class LogicalPlan {
         filters = new Vector<LogicalFilterNode>();
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
+        scanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
@@ -76,6 +78,33 @@ public class LogicalPlan {
         return tableMap.get(alias);
     }
     
+    /** @return true if a filter applies to the table with the specified alias */
+    boolean hasFilter(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the physical plan reads the table with the specified
+     *         alias in order of the named field, see
+     *         {@link SortMergeJoin#isSorted}; false before
+     *         {@link #physicalPlan} has chosen its scans
+     */
+    boolean isScannedInOrder(String alias, String fieldQuantifiedName) {
+        DbIterator subplan = scanMap.get(alias);
+        if (subplan == null)
+            return false;
+        try {
+            return SortMergeJoin.isSorted(subplan,
+                    subplan.getTupleDesc().fieldNameToIndex(fieldQuantifiedName));
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
     public HashMap<String,Integer> getTableAliasToIdMapping()
     {
         return this.tableMap;
@@ -271,6 +300,30 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Convert the constant of a filter into a Field of the type of the filtered field.
+     *  @param td the TupleDesc of the filtered subplan
+     *  @throws ParsingException if the filtered field is not in td
+     */
+    static Field getFilterConstant(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Type ftyp;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (java.util.NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** @return true if a BTreeScan can apply a predicate with operator op to its key field */
+    static boolean isIndexable(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,6 +359,42 @@ public class LogicalPlan {
 
         }
 
+        // scan a B+ tree through its index for the filter on its key field
+        // that reads the fewest pages, if that is fewer than a full scan
+        HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>();
+        HashMap<String,Double> indexCosts = new HashMap<String,Double>();
+        for (LogicalFilterNode lf : filters) {
+            DbIterator subplan = subplanMap.get(lf.tableAlias);
+            if (subplan == null || !isIndexable(lf.p))
+                continue;
+            DbFile file = Database.getCatalog().getDatabaseFile(this.getTableId(lf.tableAlias));
+            if (!(file instanceof BTreeFile))
+                continue;
+            TupleDesc td = subplan.getTupleDesc();
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                continue; // reported below
+            }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(file.getId()));
+            if (field != ((BTreeFile) file).keyField() || s == null)
+                continue;
+            double cost = s.estimateIndexScanCost(
+                    s.estimateSelectivity(field, lf.p, getFilterConstant(lf, td)));
+            Double best = indexCosts.get(lf.tableAlias);
+            if (cost < (best == null ? s.estimateScanCost() : best)) {
+                indexCosts.put(lf.tableAlias, cost);
+                indexFilters.put(lf.tableAlias, lf);
+            }
+        }
+        for (LogicalFilterNode lf : indexFilters.values()) {
+            IndexPredicate ipred = new IndexPredicate(lf.p,
+                    getFilterConstant(lf, subplanMap.get(lf.tableAlias).getTupleDesc()));
+            subplanMap.put(lf.tableAlias, new BTreeScan(t,
+                    this.getTableId(lf.tableAlias), lf.tableAlias, ipred));
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -314,19 +403,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            Field f = getFilterConstant(lf, subplanMap.get(lf.tableAlias).getTupleDesc());
 
             Predicate p = null;
             try {
@@ -334,7 +411,8 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (indexFilters.get(lf.tableAlias) != lf) // else the BTreeScan applies it
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -344,6 +422,7 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        scanMap = new HashMap<String,DbIterator>(subplanMap);
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  The policy remembers the
+ * times of the last K references to each page and evicts the page whose
+ * K-th most recent reference lies furthest in the past.  Pages referenced
+ * fewer than K times have an infinite backward distance and go first, in
+ * LRU order among themselves, so a page touched once by a sequential scan
+ * is evicted before a page that is referenced repeatedly.
+ * <p>
+ * Reference histories of evicted pages are retained for a while so that a
+ * hot page that was pushed out is recognised as hot when it comes back.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    private final int k;
+    private long clock;
+    private final HashMap<PageId, long[]> resident;
+    private final LinkedHashMap<PageId, long[]> retained;
+
+    /**
+     * @param k the number of references to remember per page (2 for LRU-2)
+     * @param numPages the capacity of the buffer pool; also the number of
+     *            non-resident histories that are retained
+     */
+    public LruKReplacementPolicy(int k, int numPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.clock = 0;
+        this.resident = new HashMap<>();
+        final int retainLimit = Math.max(numPages, 1);
+        this.retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainLimit;
+            }
+        };
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            history = retained.remove(pid);
+            if (history == null) {
+                history = new long[k];
+                Arrays.fill(history, -1);
+            }
+            resident.put(pid, history);
+        }
+        // history[0] is the most recent reference
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] history = resident.remove(pid);
+        if (history != null)
+            retained.put(pid, history);
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] history = e.getValue();
+            long kth = history[k - 1];
+            long last = history[0];
+            // smaller K-th reference time means larger backward K-distance;
+            // -1 (fewer than K references) is treated as infinitely old
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (evictable.test(e.getKey())) {
+                    victim = e.getKey();
+                    victimKth = kth;
+                    victimLast = last;
+                }
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Classic least-recently-used replacement.  Pages are kept in an
+ * access-ordered LinkedHashMap, so the eldest entry is always the page that
+ * was referenced least recently.
+ */
+public class LruReplacementPolicy implements ReplacementPolicy {
+
+    private final LinkedHashMap<PageId, Boolean> order;
+
+    public LruReplacementPolicy() {
+        order = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        order.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        order.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        // iteration does not count as an access, so this leaves the order intact
+        for (PageId pid : order.keySet()) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -4,6 +4,13 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Up to a budget of tuples is sorted in memory.  A larger input is sorted
+ * externally: each budget's worth of tuples is sorted and written to a
+ * SpillFile as a run, and the runs are merged with a priority queue of their
+ * heads, at most MERGE_FAN_IN at a time.  If there are more runs than that,
+ * they are first merged into fewer, longer runs.  Either way the sort is
+ * stable.
  */
 public class OrderBy extends Operator {
 
@@ -16,6 +23,16 @@ public class OrderBy extends Operator {
     private Iterator<Tuple> it;
     private boolean asc;
 
+    /** The default budget of tuples an OrderBy sorts in memory. */
+    public final static int MAX_TUPLES = 100000;
+    /** The most runs merged at once. */
+    public final static int MERGE_FAN_IN = 64;
+
+    private final int memoryTuples;
+    transient private TupleComparator comparator;
+    transient private ArrayList<SpillFile> runs = null; // null while the child fits
+    transient private PriorityQueue<Run> merge = null; // heads of the runs being read
+
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
      * 
@@ -27,6 +44,21 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, MAX_TUPLES);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts at most memoryTuples tuples in
+     * memory, and larger inputs externally.
+     *
+     * @param memoryTuples
+     *            the budget of tuples sorted in memory
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int memoryTuples) {
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("an OrderBy needs a budget of at least one tuple");
+        }
+        this.memoryTuples = memoryTuples;
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
@@ -56,21 +88,160 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        comparator = new TupleComparator(orderByField, asc, td.getFieldType(orderByField));
+        // load the tuples in a collection, writing it out as a sorted run
+        // whenever it is full, and sort what is left
+        childTups.clear();
+        try {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (childTups.size() == memoryTuples) {
+                    if (runs == null) {
+                        runs = new ArrayList<SpillFile>();
+                    }
+                    runs.add(writeRun());
+                }
+                childTups.add(t);
+            }
+            child.close();
+            if (runs == null) {
+                Collections.sort(childTups, comparator);
+                it = childTups.iterator();
+            } else {
+                runs.add(writeRun());
+                while (runs.size() > MERGE_FAN_IN) {
+                    mergeRuns();
+                }
+                merge = merger(runs);
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            // the caller may never close an operator that failed to open
+            childTups.clear();
+            deleteRuns();
+            throw e;
+        }
         super.open();
     }
 
+    /** A run being merged, and its next tuple. */
+    private static class Run {
+        final int index; // breaks ties, so that the merge is stable
+        final SpillFile.Reader reader;
+        Tuple head;
+
+        Run(int index, SpillFile.Reader reader) throws DbException {
+            this.index = index;
+            this.reader = reader;
+            this.head = reader.next();
+        }
+    }
+
+    /** Sorts the tuples in memory and writes them to a new run. */
+    private SpillFile writeRun() throws DbException {
+        Collections.sort(childTups, comparator);
+        SpillFile run = new SpillFile(td);
+        try {
+            for (Tuple t : childTups) {
+                run.add(t);
+            }
+        } catch (DbException e) {
+            run.delete();
+            throw e;
+        }
+        childTups.clear();
+        return run;
+    }
+
+    /** @return a queue of the heads of the runs, in order */
+    private PriorityQueue<Run> merger(List<SpillFile> runs) throws DbException {
+        PriorityQueue<Run> q = new PriorityQueue<Run>(Math.max(1, runs.size()),
+                (a, b) -> {
+                    int c = comparator.compare(a.head, b.head);
+                    return c != 0 ? c : a.index - b.index;
+                });
+        for (int i = 0; i < runs.size(); i++) {
+            Run r = new Run(i, runs.get(i).reader());
+            if (r.head != null) {
+                q.add(r);
+            }
+        }
+        return q;
+    }
+
+    /** @return the next tuple of the merged runs, or null at the end */
+    private static Tuple nextMerged(PriorityQueue<Run> q) throws DbException {
+        Run r = q.poll();
+        if (r == null) {
+            return null;
+        }
+        Tuple t = r.head;
+        r.head = r.reader.next();
+        if (r.head != null) {
+            q.add(r);
+        }
+        return t;
+    }
+
+    /** Merges the runs MERGE_FAN_IN at a time into longer ones. */
+    private void mergeRuns() throws DbException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+            SpillFile run = new SpillFile(td);
+            merged.add(run);
+            try {
+                PriorityQueue<Run> q = merger(group);
+                Tuple t;
+                while ((t = nextMerged(q)) != null) {
+                    run.add(t);
+                }
+            } catch (DbException e) {
+                // the runs not merged yet are still in runs
+                for (SpillFile f : merged) {
+                    f.delete();
+                }
+                throw e;
+            }
+            for (SpillFile f : group) {
+                f.delete();
+            }
+        }
+        runs = merged;
+    }
+
+    private void closeMerge() {
+        if (merge != null) {
+            for (Run r : merge) {
+                r.reader.close();
+            }
+            merge = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        childTups.clear();
+        closeMerge();
+        deleteRuns();
+    }
+
+    private void deleteRuns() {
+        if (runs != null) {
+            for (SpillFile f : runs) {
+                f.delete();
+            }
+            runs = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs == null) {
+            it = childTups.iterator();
+        } else {
+            closeMerge();
+            merge = merger(runs);
+        }
     }
 
     /**
@@ -82,6 +253,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null) {
+            return nextMerged(merge);
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -99,25 +273,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -13,6 +13,8 @@ public class Predicate implements Serializable {
     private int fieldIndex;	//field number of passed in tuples to compare
     private Op op;	//operation use to compare
     private Field operand;	//field value to compare 
+    private final boolean intOperand;	//operand is an IntField
+    private final int intValue;	//its value, compared without boxing
     
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -63,6 +65,8 @@ public class Predicate implements Serializable {
     	this.fieldIndex = field;
     	this.op = op;
     	this.operand = operand;
+    	this.intOperand = operand instanceof IntField;
+    	this.intValue = intOperand ? ((IntField) operand).getValue() : 0;
     }
 
     /**
@@ -104,10 +108,45 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+    	if (intOperand) {
+    		return IntField.compare(op, t.getInt(fieldIndex), intValue);
+    	}
     	Field otherOperend = t.getField(fieldIndex);
         return otherOperend.compare(op, operand);
     }
 
+    /**
+     * Applies this predicate to every row of a batch, and writes the indexes
+     * of the rows that pass to rows, in order.  An IntField operand is
+     * compared with an int column without boxing its values.
+     *
+     * @param batch
+     *            The rows to compare against
+     * @param rows
+     *            Where to write the indexes of the rows that pass; at least
+     *            batch.size() long
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] rows) {
+        int n = batch.size();
+        int selected = 0;
+        if (intOperand && batch.isIntColumn(fieldIndex)) {
+            int[] column = batch.getIntColumn(fieldIndex);
+            for (int r = 0; r < n; r++) {
+                if (IntField.compare(op, column[r], intValue)) {
+                    rows[selected++] = r;
+                }
+            }
+        } else {
+            for (int r = 0; r < n; r++) {
+                if (batch.getField(fieldIndex, r).compare(op, operand)) {
+                    rows[selected++] = r;
+                }
+            }
+        }
+        return selected;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
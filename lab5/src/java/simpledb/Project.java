@@ -5,12 +5,15 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient TupleBatch in = null;
+    private transient TupleBatch out = null;
+    private transient int[] cols = null;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -54,6 +57,8 @@ public class Project extends Operator {
     public void close() {
         super.close();
         child.close();
+        in = null;
+        out = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -80,6 +85,27 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of projected rows, copying whole columns of
+     * the child's batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            in = new TupleBatch(child.getTupleDesc());
+            out = new TupleBatch(td);
+            cols = new int[outFieldIds.size()];
+            for (int i = 0; i < cols.length; i++) {
+                cols[i] = outFieldIds.get(i);
+            }
+        }
+        TupleBatch b = TupleBatch.next(child, in);
+        if (b == null) {
+            return null;
+        }
+        out.setColumns(b, cols);
+        return out;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs a free frame.  The BufferPool tells the policy about every
+ * page access and every page that leaves the pool; the policy only keeps
+ * bookkeeping and never touches pages itself.
+ * <p>
+ * Implementations must be thread-safe, since BufferPool.getPage is called
+ * concurrently by many transactions.
+ *
+ * @see BufferPool#evictPage
+ */
+public interface ReplacementPolicy {
+
+    /** Name of the system property used to choose the default policy. */
+    public static final String POLICY_PROPERTY = "simpledb.bufferpool.policy";
+
+    /**
+     * Record a reference to the specified page.  Called on every buffer
+     * pool hit and right after a page has been read into the pool.
+     *
+     * @param pid the page that was referenced
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Forget about the specified page; it is no longer resident in the pool.
+     * Calling this for a page the policy does not know is a no-op.
+     *
+     * @param pid the page that left the pool
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose the page that should be evicted next.  The policy does not
+     * forget the page; the caller reports the eviction via
+     * {@link #pageRemoved}.
+     *
+     * @param evictable tells the policy whether a given page may be evicted
+     *            right now (e.g. it is not dirty)
+     * @return the victim, or null if no resident page is evictable
+     */
+    public PageId chooseVictim(java.util.function.Predicate<PageId> evictable);
+
+    /**
+     * Create a policy by name.  Known names are "lru", "clock" and
+     * "lru-k" (which may carry a K, e.g. "lru-2"; K defaults to 2).
+     *
+     * @param name the policy name, case insensitive
+     * @param numPages the capacity of the buffer pool the policy will manage
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ReplacementPolicy create(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("lru"))
+            return new LruReplacementPolicy();
+        if (n.equals("clock"))
+            return new ClockReplacementPolicy(numPages);
+        if (n.startsWith("lru-")) {
+            String k = n.substring(4);
+            if (k.equals("k"))
+                return new LruKReplacementPolicy(2, numPages);
+            try {
+                return new LruKReplacementPolicy(Integer.parseInt(k), numPages);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown replacement policy " + name);
+            }
+        }
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -31,6 +31,7 @@ public class SeqScan implements DbIterator {
     private int tableId;
     private String tableAlias;	//another name
     private DbFileIterator dbFileIterator;
+    private transient TupleBatch batch = null;
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
     	this.tid = tid;
@@ -47,6 +48,16 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -126,9 +137,28 @@ public class SeqScan implements DbIterator {
         return t;
     }
 
+    /**
+     * Returns the next batch of tuples of the table.  Tuples of all-int
+     * tables are copied into the batch's columns without boxing.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (dbFileIterator == null) {
+            throw new IllegalStateException("SeqScan not yet open");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && dbFileIterator.hasNext()) {
+            batch.add(dbFileIterator.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
     public void close() {
         // some code goes here
     	dbFileIterator = null;
+    	batch = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields.  It handles
+ * EQUALS, NOT_EQUALS and the range predicates, but not LIKE.
+ * <p>
+ * child2 is read into memory in ascending order of its join field, and
+ * child1 is read in ascending order of its own.  For each child1 tuple the
+ * child2 tuples it joins with are one or two runs of that list, found by
+ * two cursors that only move forward as child1's key grows, so the join
+ * does no work for pairs of tuples that do not match.  An input is only
+ * sorted if it is not already in order, see {@link #isSorted}; child1 is
+ * then streamed rather than read into memory.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc comboTD;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *            if the predicate is a LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() == Predicate.Op.LIKE) {
+            throw new IllegalArgumentException("SortMergeJoin cannot join on LIKE");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Returns true if the specified iterator returns its tuples in
+     * ascending order of the specified field: it is a BTreeScan keyed on
+     * that field, or an ascending OrderBy on it.
+     */
+    public static boolean isSorted(DbIterator it, int field) {
+        if (it instanceof BTreeScan) {
+            return ((BTreeScan) it).getKeyField() == field;
+        }
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+     *      implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    private ArrayList<Tuple> inner = null; // child2, sorted
+    private Field[] keys = null; // join field of each inner tuple
+    private ArrayList<Tuple> outer = null; // child1 if it had to be sorted
+    private int outerIdx = 0;
+
+    private Tuple t1 = null; // the outer tuple being joined
+    private int lo = 0; // first inner tuple with key >= t1's
+    private int hi = 0; // first inner tuple with key > t1's
+    private int pos = 0, end = 0; // the run being returned
+    private int pos2 = 0, end2 = 0; // the run after it, for NOT_EQUALS
+
+    /** @return the tuples of child, in ascending order of field */
+    private static ArrayList<Tuple> sorted(DbIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            tuples.add(child.next());
+        }
+        if (!isSorted(child, field)) {
+            Collections.sort(tuples, new TupleComparator(field, true,
+                    child.getTupleDesc().getFieldType(field)));
+        }
+        return tuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        inner = sorted(child2, p.getField2());
+        keys = new Field[inner.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = inner.get(i).getField(p.getField2());
+        }
+        if (!isSorted(child1, p.getField1())) {
+            outer = sorted(child1, p.getField1());
+        }
+        reset();
+    }
+
+    private void reset() {
+        outerIdx = 0;
+        t1 = null;
+        lo = hi = 0;
+        pos = end = pos2 = end2 = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        inner = null;
+        keys = null;
+        outer = null;
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (outer == null) {
+            child1.rewind();
+        }
+        reset();
+    }
+
+    /** @return the next outer tuple, in ascending order, or null */
+    private Tuple nextOuter() throws DbException, TransactionAbortedException {
+        if (outer != null) {
+            return outerIdx < outer.size() ? outer.get(outerIdx++) : null;
+        }
+        return child1.hasNext() ? child1.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  For each child1 tuple, in ascending order of its join
+     * field, the child2 tuples it joins with are returned in ascending
+     * order of theirs.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null) {
+                if (pos < end) {
+                    Tuple t = new Tuple(comboTD);
+                    t.setFields(t1, inner.get(pos++));
+                    return t;
+                }
+                if (pos2 < end2) {
+                    pos = pos2;
+                    end = end2;
+                    pos2 = end2 = 0;
+                    continue;
+                }
+            }
+
+            t1 = nextOuter();
+            if (t1 == null) {
+                return null;
+            }
+            Field key = t1.getField(p.getField1());
+            while (lo < keys.length && keys[lo].compare(Predicate.Op.LESS_THAN, key)) {
+                lo++;
+            }
+            if (hi < lo) {
+                hi = lo;
+            }
+            while (hi < keys.length && keys[hi].compare(Predicate.Op.LESS_THAN_OR_EQ, key)) {
+                hi++;
+            }
+
+            // the predicate is t1 op t2, so the runs are of the t2s that
+            // stand in the reverse relation to t1
+            switch (p.getOperator()) {
+            case EQUALS:
+                pos = lo; end = hi;
+                break;
+            case GREATER_THAN:
+                pos = 0; end = lo;
+                break;
+            case GREATER_THAN_OR_EQ:
+                pos = 0; end = hi;
+                break;
+            case LESS_THAN:
+                pos = hi; end = keys.length;
+                break;
+            case LESS_THAN_OR_EQ:
+                pos = lo; end = keys.length;
+                break;
+            case NOT_EQUALS:
+                pos = 0; end = lo;
+                pos2 = hi; end2 = keys.length;
+                break;
+            default:
+                throw new DbException("SortMergeJoin cannot join on " + p.getOperator());
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples of one schema, for operators that
+ * run out of memory and must set rows aside to read back later.  Tuples are
+ * appended with {@link #add} and read back, in the order they were added,
+ * through a {@link Reader}; the file may be read any number of times once
+ * writing is done.  Fields are stored in their page format, see
+ * {@link Field#serialize}.
+ * <p>
+ * The file is only created when the first tuple is added, and is deleted
+ * by {@link #delete}, which the operators using it call when they close,
+ * and before rethrowing when they fail to open or to write a partition.
+ * It is not registered with {@link File#deleteOnExit}, which would keep
+ * every path in memory until the JVM exits.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final boolean allInts;
+    private File file = null;
+    private DataOutputStream out = null;
+    private long size = 0;
+
+    SpillFile(TupleDesc td) {
+        this.td = td;
+        boolean ints = true;
+        for (int i = 0; i < td.numFields(); i++) {
+            ints &= td.getFieldType(i) == Type.INT_TYPE;
+        }
+        this.allInts = ints;
+    }
+
+    /** @return the number of tuples added */
+    long size() {
+        return size;
+    }
+
+    /** Appends a tuple to the file. */
+    void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                if (file == null) {
+                    file = File.createTempFile("spill", ".dat");
+                }
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true), BUFFER_SIZE));
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                if (allInts) {
+                    out.writeInt(t.getInt(i));
+                } else {
+                    t.getField(i).serialize(out);
+                }
+            }
+            size++;
+        } catch (IOException e) {
+            throw new DbException("unable to spill a tuple: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a reader positioned at the first tuple.  No tuple may be added
+     * while the reader is in use.
+     */
+    Reader reader() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new Reader();
+        } catch (IOException e) {
+            throw new DbException("unable to read spilled tuples: " + e.getMessage());
+        }
+    }
+
+    /** Deletes the file, and forgets the tuples in it. */
+    void delete() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // the file is going anyway
+        }
+        out = null;
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        size = 0;
+    }
+
+    /** Reads the tuples of a SpillFile in order. */
+    class Reader {
+        private final DataInputStream in;
+        private long remaining = size;
+
+        private Reader() throws IOException {
+            in = file == null ? null : new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /** @return the next tuple, or null if there are no more */
+        Tuple next() throws DbException {
+            if (remaining == 0) {
+                close();
+                return null;
+            }
+            try {
+                Tuple t;
+                if (allInts) {
+                    int[] values = new int[td.numFields()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = in.readInt();
+                    }
+                    t = new Tuple(td, values);
+                } else {
+                    t = new Tuple(td);
+                    for (int i = 0; i < td.numFields(); i++) {
+                        t.setField(i, td.getFieldType(i).parse(in));
+                    }
+                }
+                remaining--;
+                return t;
+            } catch (IOException e) {
+                throw new DbException("unable to read spilled tuples: " + e.getMessage());
+            } catch (java.text.ParseException e) {
+                throw new DbException("unable to read spilled tuples: " + e.getMessage());
+            }
+        }
+
+        /** Closes the reader. */
+        void close() {
+            remaining = 0;
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+}
@@ -50,7 +50,7 @@ public class StringAggregator implements Aggregator {
             aggr.put(0, aggr.get(0) + 1);
         } else {
             Object gbKey = gbfieldtype == Type.INT_TYPE ?
-                    ((IntField) tup.getField(gbfield)).getValue() :
+                    tup.getInt(gbfield) :
                     ((StringField) tup.getField(gbfield)).getValue();
             if(aggr.containsKey(gbKey)) {
                 aggr.put(gbKey, aggr.get(gbKey) + 1);
@@ -60,6 +60,47 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int n = batch.size();
+        if (gbfield == Aggregator.NO_GROUPING) {
+            aggr.put(0, aggr.get(0) + n);
+            return;
+        }
+        for (int r = 0; r < n; r++) {
+            Object gbKey = gbfieldtype == Type.INT_TYPE ?
+                    batch.getInt(gbfield, r) :
+                    ((StringField) batch.getField(gbfield, r)).getValue();
+            aggr.merge(gbKey, 1, Integer::sum);
+        }
+    }
+
+    public int numGroups() {
+        return aggr.size();
+    }
+
+    public DbIterator partials() {
+        TupleDesc td = Aggregator.partialDesc(gbfieldtype);
+        ArrayList<Tuple> res = new ArrayList<>(aggr.size());
+        for (Map.Entry<Object, Integer> e : aggr.entrySet()) {
+            Tuple t = new Tuple(td);
+            t.setField(0, (gbfieldtype == Type.INT_TYPE) ?
+                    new IntField((int) e.getKey()) :
+                    new StringField((String) e.getKey(), Type.STRING_LEN));
+            t.setField(1, new IntField(0));
+            t.setField(2, new IntField(0));
+            t.setField(3, new IntField(e.getValue()));
+            res.add(t);
+        }
+        return new TupleIterator(td, res);
+    }
+
+    public void mergePartial(Tuple partial) {
+        Object gbKey = gbfieldtype == Type.INT_TYPE ?
+                partial.getInt(0) :
+                ((StringField) partial.getField(0)).getValue();
+        aggr.merge(gbKey, partial.getInt(3), Integer::sum);
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
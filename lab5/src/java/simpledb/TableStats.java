@@ -68,7 +68,7 @@ public class TableStats {
 
     private HashMap<String, Integer[]> attrs;
     private HashMap<String, Object> name2hist;
-    private HeapFile table;
+    private DbFile table;
     private int ntups;
     private int ioCostPerPage;
     private TupleDesc td;
@@ -92,7 +92,7 @@ public class TableStats {
         // in a single scan of the table.
         // some code goes here
     	this.ioCostPerPage = ioCostPerPage;
-        table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        table = Database.getCatalog().getDatabaseFile(tableid);
         td = table.getTupleDesc();
         attrs = new HashMap<>();
         name2hist = new HashMap<>();
@@ -187,7 +187,28 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return table.numPages() * ioCostPerPage;
+        return numPages() * ioCostPerPage;
+    }
+
+    private int numPages() {
+        if (table instanceof BTreeFile) {
+            return ((BTreeFile) table).numPages();
+        }
+        return ((HeapFile) table).numPages();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on
+     * the key field of a B+ tree through its index, see BTreeScan: the
+     * leaves holding that fraction of the table, plus one page for the way
+     * down from the root, whose internal pages are few and usually cached.
+     *
+     * @param selectivity
+     *            The selectivity of the predicate on the key field
+     * @return The estimated cost of the index scan
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        return (Math.ceil(numPages() * selectivity) + 1) * ioCostPerPage;
     }
 
     /**
@@ -47,13 +47,14 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //log the dirty pages of this transaction instead of writing
+                //them out (NO-FORCE); logCommit forces the records to disk
+                Database.getBufferPool().logDirtyPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
             try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+                Database.getBufferPool().transactionComplete(tid, !abort, false); // release locks
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -2,7 +2,6 @@ package simpledb;
 
 import java.util.*;
 import java.io.Serializable;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -10,6 +9,17 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The fields are kept in an array sized from the TupleDesc, so setting a
+ * field never copies the others.  An operator that builds its output one
+ * tuple at a time may fill the same Tuple for every row, see
+ * {@link #setFields(Tuple, Tuple)}, if its consumer does not keep the
+ * tuples it is given.
+ * <p>
+ * Tuples of an all-INT_TYPE schema that are read from a HeapPage keep their
+ * values in an int array instead, and only box a value into an IntField
+ * when getField asks for it.  Predicates, join predicates and aggregators
+ * read those values with {@link #getInt(int)}, which never boxes.
  */
 public class Tuple implements Serializable {
 
@@ -24,11 +34,26 @@ public class Tuple implements Serializable {
      */
     private TupleDesc td;	//schema
     private RecordId rid;	//disk
-    private CopyOnWriteArrayList<Field> fields;	//record
+    private Field[] fields;	//record; boxed lazily from ints if it is set
+    private int[] ints;	//record of an all-int tuple, or null
     public Tuple(TupleDesc td) {
         // some code goes here
 	this.td = td;
-	this.fields = new CopyOnWriteArrayList<>();
+	this.fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple of an all-INT_TYPE schema that holds the specified
+     * values, which it keeps rather than copies.
+     */
+    Tuple(TupleDesc td, int[] ints) {
+	this(td);
+	this.ints = ints;
+    }
+
+    /** @return true if the values of this tuple are held as ints */
+    boolean isIntBacked() {
+        return ints != null;
     }
 
     /**
@@ -69,14 +94,70 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-	if(i >= 0 && i< fields.size()){
-		fields.set(i, f);	
+	if (ints != null) {
+		if (f instanceof IntField) {
+			ints[i] = ((IntField) f).getValue();
+		} else {
+			boxAll();
+			ints = null;
+		}
 	}
-	else if(i == fields.size()){
-		fields.add(f);
+	fields[i] = f;
+    }
+
+    /** Box every int value that has not been boxed yet. */
+    private void boxAll() {
+	for (int i = 0; i < fields.length; i++) {
+		getField(i);
 	}
     }
 
+    /**
+     * Set the fields of this tuple to the fields of t1 followed by the
+     * fields of t2, as a join does for each pair of matching tuples.  This
+     * tuple's TupleDesc must be the merge of theirs.  The RecordId is
+     * cleared, since the result is not stored anywhere.
+     *
+     * @see TupleDesc#merge(TupleDesc, TupleDesc)
+     */
+    public void setFields(Tuple t1, Tuple t2) {
+        int n1 = t1.fields.length;
+        if (t1.ints != null && t2.ints != null) {
+            if (ints == null) {
+                ints = new int[fields.length];
+            }
+            System.arraycopy(t1.ints, 0, ints, 0, n1);
+            System.arraycopy(t2.ints, 0, ints, n1, t2.ints.length);
+            Arrays.fill(fields, null);
+        } else {
+            ints = null;
+            t1.copyFields(fields, 0);
+            t2.copyFields(fields, n1);
+        }
+        this.rid = null;
+    }
+
+    private void copyFields(Field[] dst, int offset) {
+        if (ints != null) {
+            boxAll();
+        }
+        System.arraycopy(fields, 0, dst, offset, fields.length);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an IntField, without
+     *         boxing it if this tuple holds its values as ints.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        if (ints != null) {
+            return ints[i];
+        }
+        return ((IntField) fields[i]).getValue();
+    }
+
     /**
      * @return the value of the ith field, or null if it has not been set.
      *
@@ -85,10 +166,15 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-	if(fields == null||i >= fields.size()){
+	if(i >= fields.length){
         	return null;
 	}
-	return fields.get(i);
+	Field f = fields[i];
+	if (f == null && ints != null) {
+		f = new IntField(ints[i]);
+		fields[i] = f;
+	}
+	return f;
     }
 
     /**
@@ -108,7 +194,7 @@ public class Tuple implements Serializable {
 	while(tdItems.hasNext()){
 		TupleDesc.TDItem item = tdItems.next();
 		stringBuilder.append("Field_Name:").append(item.fieldName);
-		stringBuilder.append("==>Value:").append(fields.get(i).toString());
+		stringBuilder.append("==>Value:").append(getField(i));
 		stringBuilder.append("\n");
 		i++;
 	}
@@ -122,7 +208,10 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return fields.iterator();
+        if (ints != null) {
+            boxAll();
+        }
+        return Arrays.asList(fields).iterator();
     }
 
     /**
@@ -132,5 +221,12 @@ public class Tuple implements Serializable {
     {
         // some code goes here
     	this.td = td;
+    	if (td.numFields() != fields.length) {
+    		if (ints != null) {
+    			boxAll();
+    			ints = null;
+    		}
+    		this.fields = Arrays.copyOf(fields, td.numFields());
+    	}
     }
 }
@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #MAX_ROWS} rows of one schema, column by
+ * column.  INT_TYPE columns are int arrays, so operators that work on whole
+ * batches, see {@link BatchIterator}, can loop over a column without a call
+ * or an IntField per value; other columns are arrays of Fields.
+ * <p>
+ * Rows in a batch have no RecordId, so operators that need to know where a
+ * tuple is stored, such as Delete, must consume tuples one at a time.
+ */
+public class TupleBatch {
+
+    /** The largest number of rows in a batch. */
+    public static final int MAX_ROWS = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints; // values of the INT_TYPE columns, else null
+    private final Field[][] fields; // values of the other columns, else null
+    private final boolean allInts;
+    private int size = 0;
+
+    /**
+     * Create an empty batch of rows of the specified schema.
+     */
+    public TupleBatch(TupleDesc td) {
+        this.td = td;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        boolean all = true;
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[MAX_ROWS];
+            } else {
+                fields[i] = new Field[MAX_ROWS];
+                all = false;
+            }
+        }
+        this.allInts = all;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added to this batch */
+    public boolean isFull() {
+        return size == MAX_ROWS;
+    }
+
+    /** Remove every row from this batch. */
+    public void clear() {
+        for (Field[] column : fields) {
+            if (column != null) {
+                Arrays.fill(column, 0, size, null);
+            }
+        }
+        size = 0;
+    }
+
+    /** @return true if the specified column holds ints */
+    public boolean isIntColumn(int col) {
+        return ints[col] != null;
+    }
+
+    /**
+     * Returns the values of an INT_TYPE column.  Only the first size()
+     * entries are rows of this batch.
+     */
+    public int[] getIntColumn(int col) {
+        return ints[col];
+    }
+
+    /** @return the value in the specified INT_TYPE column and row */
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    /** @return the value in the specified column and row, boxed if it is an int */
+    public Field getField(int col, int row) {
+        if (ints[col] != null) {
+            return new IntField(ints[col][row]);
+        }
+        return fields[col][row];
+    }
+
+    /**
+     * Append a tuple to this batch.  The tuple's schema must have the same
+     * types as the batch's.
+     */
+    public void add(Tuple t) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = t.getInt(i);
+            } else {
+                fields[i][size] = t.getField(i);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Append a row of another batch of the same types to this batch.
+     */
+    public void addRow(TupleBatch src, int row) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = src.ints[i][row];
+            } else {
+                fields[i][size] = src.fields[i][row];
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Append a row made of the fields of t followed by the fields of a row
+     * of another batch, as a join does for a pair of matching rows.  This
+     * batch's schema must be the merge of theirs.
+     */
+    public void addJoined(Tuple t, TupleBatch src, int row) {
+        int n1 = ints.length - src.ints.length;
+        for (int i = 0; i < n1; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = t.getInt(i);
+            } else {
+                fields[i][size] = t.getField(i);
+            }
+        }
+        for (int i = n1; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = src.ints[i - n1][row];
+            } else {
+                fields[i][size] = src.fields[i - n1][row];
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Set this batch to the specified columns of another batch, in order,
+     * as a projection does.  The column types must match.
+     */
+    public void setColumns(TupleBatch src, int[] cols) {
+        for (int i = 0; i < cols.length; i++) {
+            if (ints[i] != null) {
+                System.arraycopy(src.ints[cols[i]], 0, ints[i], 0, src.size);
+            } else {
+                System.arraycopy(src.fields[cols[i]], 0, fields[i], 0, src.size);
+            }
+        }
+        for (int i = src.size; i < size; i++) {
+            for (Field[] column : fields) {
+                if (column != null) {
+                    column[i] = null;
+                }
+            }
+        }
+        size = src.size;
+    }
+
+    /**
+     * Returns the specified row as a new Tuple.  A row of an all-int
+     * schema keeps its values unboxed, see {@link Tuple#getInt}.
+     */
+    public Tuple getTuple(int row) {
+        int n = ints.length;
+        if (allInts) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = ints[i][row];
+            }
+            return new Tuple(td, values);
+        }
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n; i++) {
+            t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next batch of the specified iterator: the iterator's own
+     * batch if it is a BatchIterator, or else up to MAX_ROWS of its tuples
+     * copied into scratch.
+     *
+     * @param child the iterator to read from
+     * @param scratch a batch of the child's schema to fill, if needed
+     * @return a batch with at least one row, or null if child is done
+     */
+    public static TupleBatch next(DbIterator child, TupleBatch scratch)
+            throws DbException, TransactionAbortedException {
+        if (child instanceof BatchIterator) {
+            return ((BatchIterator) child).nextBatch();
+        }
+        scratch.clear();
+        while (!scratch.isFull() && child.hasNext()) {
+            scratch.add(child.next());
+        }
+        return scratch.size() > 0 ? scratch : null;
+    }
+}
@@ -0,0 +1,32 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples by one field of the given type, reading int keys with
+ * {@link Tuple#getInt} and string keys as Strings rather than through two
+ * calls to {@link Field#compare}.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    int field;
+    boolean asc;
+    boolean ints;
+
+    public TupleComparator(int field, boolean asc, Type type) {
+        this.field = field;
+        this.asc = asc;
+        this.ints = type == Type.INT_TYPE;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        int c;
+        if (ints) {
+            c = Integer.compare(o1.getInt(field), o2.getInt(field));
+        } else {
+            c = ((StringField) o1.getField(field)).getValue().compareTo(
+                    ((StringField) o2.getField(field)).getValue());
+        }
+        return asc ? c : -c;
+    }
+    
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Unbatcher reads its child a batch at a time, through nextBatch(), and
+ * returns the rows one tuple at a time, so operators that only know
+ * next() can consume the output of a batch pipeline.
+ *
+ * @see Batcher
+ */
+public class Unbatcher extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private transient TupleBatch batch = null;
+    private transient int row = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the iterator whose batches are returned as tuples
+     */
+    public Unbatcher(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (batch == null || row == batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(row++);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = (BatchIterator) children[0];
+    }
+}
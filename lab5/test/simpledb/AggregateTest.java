@@ -3,11 +3,15 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
 
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class AggregateTest extends SimpleDbTestBase {
@@ -176,6 +180,150 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext()) {
+      // the batch path names the fields, so only their values are compared
+      Tuple t = it.next();
+      String row = "";
+      for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+        row += t.getField(i) + " ";
+      }
+      rows.add(row);
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Unit test for an Aggregate with more groups than its budget, so its
+   * groups are partitioned to disk, and partitioned again when a partition
+   * is still too big
+   */
+  @Test public void spillAggregate() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+    TransactionId tid = new TransactionId();
+    for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.MIN }) {
+      Aggregate inMemory = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, aop);
+      inMemory.open();
+      ArrayList<String> expected = sortedRows(inMemory);
+      inMemory.close();
+      assertTrue(expected.size() > 160);
+
+      Aggregate op = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, aop, 10);
+      op.open();
+      assertEquals(expected, sortedRows(op));
+      op.rewind();
+      assertEquals(expected, sortedRows(op));
+      op.close();
+
+      // the batch path reads the same partitions
+      op = new Aggregate(new SeqScan(tid, table.getId()), 1, 0, aop, 10);
+      DbIterator unbatched = new Unbatcher(op);
+      unbatched.open();
+      assertEquals(expected, sortedRows(unbatched));
+      unbatched.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for an Aggregate grouped by a string field, with more groups
+   * than its budget
+   */
+  @Test public void spillStringGroupBy() throws Exception {
+    Object[] data = new Object[2 * 600];
+    for (int i = 0; i < 600; i++) {
+      data[2 * i] = "g" + (i % 200);
+      data[2 * i + 1] = i;
+    }
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(2, data), 1, 0,
+        Aggregator.Op.COUNT);
+    inMemory.open();
+    ArrayList<String> expected = sortedRows(inMemory);
+    assertEquals(200, expected.size());
+
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), 1, 0,
+        Aggregator.Op.COUNT, 5);
+    op.open();
+    assertEquals(expected, sortedRows(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for an Aggregate over int groups that differ only in their
+   * high bits, and values that need more than 32 bits to sum
+   */
+  @Test public void spillCollidingIntKeys() throws Exception {
+    Object[] data = new Object[2 * 80];
+    for (int i = 0; i < 80; i++) {
+      data[2 * i] = (i % 8) << 20;
+      data[2 * i + 1] = (i % 2 == 0 ? 1 : -1) * (Integer.MAX_VALUE - i);
+    }
+    for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.MIN,
+        Aggregator.Op.MAX }) {
+      Aggregate inMemory = new Aggregate(TestUtil.createTupleList(2, data), 1, 0, aop);
+      inMemory.open();
+      ArrayList<String> expected = sortedRows(inMemory);
+      assertEquals(8, expected.size());
+
+      Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), 1, 0, aop, 4);
+      op.open();
+      assertEquals(expected, sortedRows(op));
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for an Aggregate whose groups all have the same hash, so
+   * partitioning never splits them and they are aggregated in memory
+   */
+  @Test public void spillSameHashStrings() throws Exception {
+    String[] keys = new String[8];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "";
+      for (int b = 0; b < 3; b++) {
+        keys[i] += (i >> b & 1) == 0 ? "Aa" : "BB";
+      }
+      assertEquals(keys[0].hashCode(), keys[i].hashCode());
+    }
+    Object[] data = new Object[2 * 40];
+    for (int i = 0; i < 40; i++) {
+      data[2 * i] = keys[i % keys.length];
+      data[2 * i + 1] = i;
+    }
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(2, data), 1, 0,
+        Aggregator.Op.SUM);
+    inMemory.open();
+    ArrayList<String> expected = sortedRows(inMemory);
+    assertEquals(8, expected.size());
+
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), 1, 0,
+        Aggregator.Op.SUM, 2);
+    op.open();
+    assertEquals(expected, sortedRows(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for an Aggregate whose child fails after the groups were
+   * spilled: the partitions written so far must be deleted
+   */
+  @Test public void spillChildFails() throws Exception {
+    int before = TestUtil.countSpillFiles();
+    Aggregate op = new Aggregate(new TestUtil.AbortingScan(0, 1000, 2, 100), 1, 0,
+        Aggregator.Op.SUM, 10);
+    try {
+      op.open();
+      fail("expected TransactionAbortedException");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+    assertEquals(before, TestUtil.countSpillFiles());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    @Test public void ringRecyclesOldestFrame() {
+        BufferRing ring = new BufferRing(2);
+        assertNull(ring.nextToRecycle());
+        ring.loaded(new HeapPageId(1, 0));
+        assertNull(ring.nextToRecycle());
+        ring.loaded(new HeapPageId(1, 1));
+        assertEquals(new HeapPageId(1, 0), ring.nextToRecycle());
+        ring.loaded(new HeapPageId(1, 2));
+        assertEquals(new HeapPageId(1, 1), ring.nextToRecycle());
+    }
+
+    @Test public void onlyLargeScansGetRing() {
+        BufferPool bp = new BufferPool(40);
+        bp.setScanRingPages(4);
+        assertNull(bp.getScanRing(40));
+        BufferRing ring = bp.getScanRing(41);
+        assertNotNull(ring);
+        assertEquals(4, ring.size());
+        bp.setScanRingPages(0);
+        assertNull(bp.getScanRing(1000));
+    }
+
+    /**
+     * A sequential scan of a table larger than the pool does not evict the
+     * pages another transaction keeps using.
+     */
+    @Test public void hotPagesSurviveScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        Database.resetBufferPool(16);
+        BufferPool bp = Database.getBufferPool();
+        bp.setScanRingPages(2);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 40, count);
+
+        long misses = bp.getMissCount();
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page the ring loaded is not recycled once another transaction has
+     * read it through the pool.
+     */
+    @Test public void sharedPagesAreNotRecycled() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        Database.resetBufferPool(16);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId scanner = new TransactionId();
+        TransactionId other = new TransactionId();
+        BufferRing ring = new BufferRing(1);
+
+        // an untouched page is recycled when the ring moves on
+        bp.getPage(scanner, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY, ring);
+        bp.getPage(scanner, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY, ring);
+        long misses = bp.getMissCount();
+        bp.getPage(other, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(misses + 1, bp.getMissCount());
+
+        // page 1 was read by another transaction, so it stays in the pool
+        bp.getPage(other, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        bp.getPage(scanner, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY, ring);
+        misses = bp.getMissCount();
+        bp.getPage(other, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(scanner);
+        bp.transactionComplete(other);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
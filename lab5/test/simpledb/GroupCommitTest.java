@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    /** Starts the specified number of threads that each commit once. */
+    private static void commitConcurrently(int threads) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final ArrayList<Exception> errors = new ArrayList<Exception>();
+        ArrayList<Thread> committers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread th = new Thread() {
+                public void run() {
+                    try {
+                        Transaction t = new Transaction();
+                        t.start();
+                        barrier.await();
+                        t.commit();
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            th.start();
+            committers.add(th);
+        }
+        for (Thread th : committers) {
+            th.join(10000);
+            assertTrue(!th.isAlive());
+        }
+        assertTrue(errors.isEmpty());
+    }
+
+    /**
+     * Concurrent commits share the forces of the log.
+     */
+    @Test public void batchesShareForce() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(true, 200000, 8);
+        long forces = log.getForceCount();
+        int records = log.getTotalRecords();
+
+        commitConcurrently(8);
+
+        assertEquals(records + 16, log.getTotalRecords());
+        assertTrue(log.getForceCount() - forces < 8);
+    }
+
+    /**
+     * A lone committer does not wait longer than the configured time for
+     * a batch that never fills up.
+     */
+    @Test public void loneCommitterWaitsAtMostMaxWait() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(true, 20000, 8);
+        long start = System.currentTimeMillis();
+        commitConcurrently(1);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    /**
+     * Without group commit, every commit forces the log.
+     */
+    @Test public void disabled() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(false, 0, 1);
+        long forces = log.getForceCount();
+        commitConcurrently(4);
+        assertEquals(4, log.getForceCount() - forces);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
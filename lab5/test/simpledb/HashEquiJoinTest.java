@@ -3,11 +3,13 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.io.IOException;
 import java.util.HashMap;
 
@@ -130,6 +132,69 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
       validateJoin(1,10,1,30001);
   }
 
+  /** @return the rows of it, as strings, sorted */
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext()) {
+      rows.add(it.next().toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Unit test for a HashEquiJoin whose build side does not fit in its
+   * memory budget, so both inputs are partitioned to disk
+   */
+  @Test public void spillJoin() throws Exception {
+    HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 500, null, null);
+    HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 500, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    Join nl = new Join(p, new SeqScan(tid, table1.getId()), new SeqScan(tid, table2.getId()));
+    nl.open();
+    ArrayList<String> expected = sortedRows(nl);
+    nl.close();
+    assertTrue(expected.size() > 0);
+
+    HashEquiJoin op = new HashEquiJoin(p, new SeqScan(tid, table1.getId()),
+        new SeqScan(tid, table2.getId()), 100);
+    op.open();
+    assertEquals(expected, sortedRows(op));
+    op.rewind();
+    assertEquals(expected, sortedRows(op));
+    op.close();
+
+    // the batch path reads the same partitions
+    op = new HashEquiJoin(p, new SeqScan(tid, table1.getId()),
+        new SeqScan(tid, table2.getId()), 100);
+    DbIterator unbatched = new Unbatcher(op);
+    unbatched.open();
+    assertEquals(expected, sortedRows(unbatched));
+    unbatched.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for a HashEquiJoin whose build side aborts after it was
+   * partitioned: the partitions must be deleted, though the join is never
+   * closed
+   */
+  @Test public void buildAborts() throws Exception {
+    int before = TestUtil.countSpillFiles();
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(p, new TestUtil.AbortingScan(0, 1000, 2, 500),
+        new TestUtil.MockScan(0, 1000, 2), 100);
+    try {
+      op.open();
+      fail("expected TransactionAbortedException");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+    assertEquals(before, TestUtil.countSpillFiles());
+  }
+
   /**
    * JUnit suite target
    */
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,47 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * An insert goes to the first page with room without locking the full
+     * pages before it, also in a HeapFile that has to learn the free space
+     * from the page headers.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        for (int i = 0; i < 504 * 3 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        tid = new TransactionId();
+        reopened.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(reopened.getId(), pgNo)));
+        }
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(reopened.getId(), 3)));
+        assertEquals(4, reopened.numPages());
+    }
+
+    /**
+     * A slot freed by a delete is reused by the next insert.
+     */
+    @Test public void deleteFreesSpace() throws Exception {
+        for (int i = 0; i < 504 * 2; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        empty.deleteTuple(tid, first);
+
+        ArrayList<Page> dirtied = empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(0, dirtied.get(0).getId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,60 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test that tuples inserted into a page are written into its bytes,
+     * so a page parsed from getPageData holds them, and that the page does
+     * not keep the caller's tuple.
+     */
+    @Test public void insertedTuplesInPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple addition = Utility.getHeapTuple(new int[] { 12345, -6789 });
+        page.insertTuple(addition);
+        Tuple deleted = page.iterator().next();
+        page.deleteTuple(deleted);
+        addition.setField(0, new IntField(0));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copied = copy.iterator();
+        boolean found = false;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertTrue(TestUtil.compareTuples(tup, copied.next()));
+            if (tup.getField(0).equals(new IntField(12345))) {
+                assertEquals(new IntField(-6789), tup.getField(1));
+                found = true;
+            }
+        }
+        assertTrue(!copied.hasNext());
+        assertTrue(found);
+    }
+
+    /**
+     * Unit test that the before image is only copied when the page is first
+     * modified, and still shows the page as it was before that.
+     */
+    @Test public void beforeImageCopiedOnWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(page.oldData == null);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        byte[] before = page.oldData;
+        assertTrue(before != null);
+        page.deleteTuple(page.iterator().next());
+        assertTrue(before == page.oldData);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        assertTrue(page.oldData == null);
+        assertTrue(Arrays.equals(page.getPageData(),
+                page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
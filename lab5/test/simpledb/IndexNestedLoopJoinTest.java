@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private HeapFile outer;
+  private BTreeFile inner;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    // few distinct keys, so most outer tuples match several inner ones
+    outer = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, null);
+    inner = BTreeUtility.createRandomBTreeFile(3, 2000, 200, null, null, 1);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return the rows of it, as strings, sorted */
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext()) {
+      rows.add(it.next().toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext(), against a nested loops
+   * join of the same inputs
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    Join nl = new Join(p, new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId()));
+    nl.open();
+    ArrayList<String> expected = sortedRows(nl);
+    nl.close();
+    assertTrue(expected.size() > 0);
+
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(p,
+        new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId()));
+    op.open();
+    assertEquals(expected, sortedRows(op));
+    op.rewind();
+    assertEquals(expected, sortedRows(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.canProbe()
+   */
+  @Test public void canProbe() throws Exception {
+    assertTrue(IndexNestedLoopJoin.canProbe(new SeqScan(tid, inner.getId()), 1));
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, inner.getId()), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, outer.getId()), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(
+        new BTreeScan(tid, inner.getId(), "t", null), 1));
+  }
+
+  /**
+   * Unit test for the IndexNestedLoopJoin constructor on a field that is
+   * not the inner table's key
+   */
+  @Test(expected = IllegalArgumentException.class) public void notIndexed() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId()));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
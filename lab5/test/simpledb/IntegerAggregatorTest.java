@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.util.NoSuchElementException;
 
@@ -178,6 +179,74 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that AVG sums in more than 32 bits
+   */
+  @Test public void avgOverflow() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    DbIterator tuples = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2 });
+    tuples.open();
+    while (tuples.hasNext())
+      agg.mergeTupleIntoGroup(tuples.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE - 1 }), it);
+  }
+
+  /**
+   * Test that an ungrouped aggregate over no tuples returns no tuple,
+   * except for a COUNT, which returns 0
+   */
+  @Test public void emptyInput() throws Exception {
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.AVG }) {
+      DbIterator it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0, op).iterator();
+      it.open();
+      assertFalse(it.hasNext());
+    }
+    DbIterator it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0,
+        Aggregator.Op.COUNT).iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+  }
+
+  /**
+   * Test IntegerAggregator with more groups than its initial hash table
+   * holds, merged a tuple and a batch at a time
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 5000;
+    TupleDesc td = Utility.getTupleDesc(width1);
+    IntegerAggregator byTuple = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+    IntegerAggregator byBatch = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+    TupleBatch batch = new TupleBatch(td);
+    int[] expected = new int[groups * 2];
+    for (int i = 0; i < groups * 3; i++) {
+      // negative group values too, each group three times
+      Tuple t = Utility.getHeapTuple(new int[] { (i % groups) - groups / 2, i });
+      byTuple.mergeTupleIntoGroup(t);
+      batch.add(t);
+      if (batch.isFull()) {
+        byBatch.mergeBatchIntoGroup(batch);
+        batch.clear();
+      }
+      expected[(i % groups) * 2] = (i % groups) - groups / 2;
+      expected[(i % groups) * 2 + 1] = i;
+    }
+    byBatch.mergeBatchIntoGroup(batch);
+
+    // the groups come out in ascending order
+    DbIterator it = byTuple.iterator();
+    it.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1, expected), it);
+    it = byBatch.iterator();
+    it.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1, expected), it);
+  }
+
   /**
    * JUnit suite target
    */
@@ -621,4 +621,101 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Verify that range joins are costed as sort-merge joins, far below
+     * nested loops, and that equality joins of inputs already sorted on
+     * their join fields are merged rather than hashed.
+     */
+    @Test
+    public void sortMergeJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator sorted1 = new OrderBy(1, true, new SeqScan(tid, tableId1, "t1"));
+        DbIterator sorted2 = new OrderBy(2, true, new SeqScan(tid, tableId2, "t2"));
+        DbIterator join = JoinOptimizer.instantiateJoin(new LogicalJoinNode(
+                "t1", "t2", "c1", "c2", Predicate.Op.EQUALS), sorted1, sorted2);
+        Assert.assertTrue(join instanceof SortMergeJoin);
+        join = JoinOptimizer.instantiateJoin(new LogicalJoinNode(
+                "t1", "t2", "c1", "c2", Predicate.Op.EQUALS),
+                sorted1, new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(join instanceof HashEquiJoin);
+
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 < t2.c2;"), new Vector<LogicalJoinNode>());
+        LogicalJoinNode lessThan = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.LESS_THAN);
+        double range = jo.estimateJoinCost(lessThan, 1000, 10000, 100, 1000);
+        Assert.assertTrue(range < 1000.0 * 10000);
+        // but not below the cost of emitting its output
+        Assert.assertTrue(range > 0.3 * 1000 * 10000);
+        LogicalJoinNode notEquals = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.NOT_EQUALS);
+        Assert.assertTrue(jo.estimateJoinCost(notEquals, 1000, 10000, 100, 1000) > 1000.0 * 10000);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Verify that an equality join whose inner table is a B+ tree keyed on
+     * its join field is instantiated as an index lookup, and that its cost
+     * grows with the outer side only.
+     */
+    @Test
+    public void indexJoinForIndexedInner() throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 100, null, null, 0);
+        BTreeFile bt = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(bt, "bt");
+        DbIterator join = JoinOptimizer.instantiateJoin(new LogicalJoinNode(
+                "t1", "bt", "c1", "c0", Predicate.Op.EQUALS),
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, bt.getId(), "bt"));
+        Assert.assertTrue(join instanceof IndexNestedLoopJoin);
+        join = JoinOptimizer.instantiateJoin(new LogicalJoinNode(
+                "t1", "bt", "c1", "c1", Predicate.Op.EQUALS),
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, bt.getId(), "bt"));
+        Assert.assertTrue(join instanceof HashEquiJoin);
+
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, bt WHERE t1.c1 = bt.c0;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode equals = new LogicalJoinNode("t1", "bt", "c1", "c0",
+                Predicate.Op.EQUALS);
+        double index = jo.estimateJoinCost(equals, 10, 100000, 10, 100000);
+        double hash = jo.estimateJoinCost(equals.swapInnerOuter(), 100000, 10, 100000, 10);
+        Assert.assertTrue(index < 100000);
+        Assert.assertTrue(index < hash);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Verify that equality joins are instantiated as hash joins, that their
+     * cost is linear in both inputs, and that the cheaper plan builds its
+     * hash table on the smaller input.
+     */
+    @Test
+    public void hashJoinForEquality() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator join = JoinOptimizer.instantiateJoin(new LogicalJoinNode(
+                "t1", "t2", "c1", "c2", Predicate.Op.EQUALS),
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(join instanceof HashEquiJoin);
+        join = JoinOptimizer.instantiateJoin(new LogicalJoinNode(
+                "t1", "t2", "c1", "c2", Predicate.Op.LESS_THAN),
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(join instanceof SortMergeJoin);
+
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"), new Vector<LogicalJoinNode>());
+        LogicalJoinNode equals = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.EQUALS);
+        double small = jo.estimateJoinCost(equals, 1000, 10000, 100, 1000);
+        double large = jo.estimateJoinCost(equals.swapInnerOuter(), 10000, 1000, 1000, 100);
+        Assert.assertTrue(small < large);
+        // far below the nested loops cost of card1 * card2
+        Assert.assertTrue(small < 1000.0 * 10000);
+    }
 }
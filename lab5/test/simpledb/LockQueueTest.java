@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockQueueTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId pid;
+
+    /** Acquires a lock from the LockManager in its own thread. */
+    private class Grabber extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile TransactionAbortedException error;
+
+        Grabber(TransactionId tid, Permissions perm) {
+            this(tid, LockQueueTest.this.pid, perm);
+        }
+
+        Grabber(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                error = e;
+            }
+        }
+    }
+
+    @Before public void setUp() {
+        lm = LockManager.GetLockManager();
+        pid = new HeapPageId(1, 0);
+    }
+
+    /**
+     * A shared request queued behind an exclusive request does not barge
+     * past it, even though it is compatible with the current holder.
+     */
+    @Test public void fifoGrants() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, pid, Permissions.READ_ONLY);
+
+        Grabber writer = new Grabber(t2, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Grabber reader = new Grabber(t3, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releasePages(t1);
+        writer.join(TIMEOUT * 10);
+        assertTrue(writer.acquired);
+        Thread.sleep(TIMEOUT);
+        assertFalse(reader.acquired);
+
+        lm.releasePages(t2);
+        reader.join(TIMEOUT * 10);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * Waiting readers are granted together when the writer releases, and
+     * park instead of spinning while they wait.
+     */
+    @Test public void sharedBatch() throws Exception {
+        TransactionId writer = new TransactionId();
+        lm.acquireLock(writer, pid, Permissions.READ_WRITE);
+
+        Grabber[] readers = new Grabber[4];
+        for (int i = 0; i < readers.length; i++)
+            readers[i] = new Grabber(new TransactionId(), Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        for (Grabber g : readers) {
+            assertFalse(g.acquired);
+            assertEquals(Thread.State.WAITING, g.getState());
+        }
+
+        lm.releasePages(writer);
+        for (Grabber g : readers) {
+            g.join(TIMEOUT * 10);
+            assertTrue(g.acquired);
+            assertTrue(lm.holdsLock(g.tid, pid));
+        }
+    }
+
+    /**
+     * An upgrade goes ahead of the requests already queued.
+     */
+    @Test public void upgradeFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, pid, Permissions.READ_ONLY);
+        lm.acquireLock(t2, pid, Permissions.READ_ONLY);
+
+        Grabber other = new Grabber(t3, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Grabber upgrade = new Grabber(t1, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(upgrade.acquired);
+
+        lm.releasePages(t2);
+        upgrade.join(TIMEOUT * 10);
+        assertTrue(upgrade.acquired);
+        assertFalse(other.acquired);
+        lm.releasePages(t1);
+        other.join(TIMEOUT * 10);
+        assertTrue(other.acquired);
+    }
+
+    /**
+     * The youngest transaction on a cycle is aborted, even when an older
+     * transaction closes the cycle.
+     */
+    @Test public void youngestIsVictim() throws Exception {
+        PageId other = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, pid, Permissions.READ_WRITE);
+        lm.acquireLock(younger, other, Permissions.READ_WRITE);
+
+        Grabber youngWait = new Grabber(younger, pid, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Grabber oldWait = new Grabber(older, other, Permissions.READ_WRITE);
+
+        youngWait.join(TIMEOUT * 10);
+        assertTrue(youngWait.error != null);
+        assertFalse(oldWait.acquired);
+        assertTrue(oldWait.error == null);
+
+        lm.releasePages(younger);
+        oldWait.join(TIMEOUT * 10);
+        assertTrue(oldWait.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockQueueTest.class);
+    }
+}
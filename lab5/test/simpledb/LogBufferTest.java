@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    private HeapPage page;
+
+    @Before public void createPage() throws Exception {
+        File f = File.createTempFile("logbuffer", "dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Every record gets a larger LSN than the one before it.
+     */
+    @Test public void lsnsIncrease() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long prev = -1;
+        for (int i = 0; i < 10; i++) {
+            long lsn = log.logWrite(tid, page, page);
+            assertTrue(lsn > prev);
+            assertTrue(log.getCurrentLSN() > lsn);
+            prev = lsn;
+        }
+    }
+
+    /**
+     * Appends stay in memory until they are flushed, and flushing a record
+     * that is already durable does not force the log again.
+     */
+    @Test public void flushToLSN() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long lsn = log.logWrite(tid, page, page);
+        assertTrue(log.getDurableLSN() <= lsn);
+
+        log.flushToLSN(lsn);
+        assertTrue(log.getDurableLSN() > lsn);
+
+        long forces = log.getForceCount();
+        log.flushToLSN(lsn);
+        assertEquals(forces, log.getForceCount());
+    }
+
+    /**
+     * LSNs keep increasing when a checkpoint truncates the log.
+     */
+    @Test public void lsnsSurviveTruncate() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long before = log.logWrite(tid, page, page);
+        log.logCommit(tid);
+        log.logCheckpoint();
+
+        tid = new TransactionId();
+        log.logXactionBegin(tid);
+        assertTrue(log.logWrite(tid, page, page) > before);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
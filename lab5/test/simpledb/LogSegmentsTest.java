@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    private static final long SEGMENT_SIZE = 16 * 1024;
+
+    private File dir;
+    private File logName;
+    private HeapPage page;
+
+    @Before public void setUp() throws Exception {
+        dir = File.createTempFile("segments", "");
+        dir.delete();
+        dir.mkdir();
+        logName = new File(dir, "log");
+        File f = new File(dir, "table.dat");
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    @After public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /** Logs enough updates for tid to fill several segments. */
+    private void fill(LogFile log, TransactionId tid) throws Exception {
+        for (int i = 0; i < 10; i++) {
+            log.logWrite(tid, page, page);
+        }
+    }
+
+    /**
+     * A checkpoint with no running transaction deletes every segment
+     * before it.
+     */
+    @Test public void checkpointDeletesSegments() throws Exception {
+        LogFile log = new LogFile(logName, SEGMENT_SIZE);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        fill(log, tid);
+        log.logCommit(tid);
+        assertTrue(log.getSegmentCount() > 4);
+
+        long lsn = log.getCurrentLSN();
+        log.logCheckpoint();
+        assertEquals(1, log.getSegmentCount());
+        assertTrue(log.getCurrentLSN() > lsn);
+    }
+
+    /**
+     * The segments holding the records of a running transaction survive
+     * the checkpoint, and it can still be rolled back.
+     */
+    @Test public void runningTransactionPinsSegments() throws Exception {
+        LogFile log = new LogFile(logName, SEGMENT_SIZE);
+        TransactionId running = new TransactionId();
+        log.logXactionBegin(running);
+        fill(log, running);
+        log.force();
+        int segments = log.getSegmentCount();
+
+        log.logCheckpoint();
+        assertEquals(segments, log.getSegmentCount());
+        log.logAbort(running);
+    }
+
+    /**
+     * A reopened log recovers from the first record after a truncation.
+     */
+    @Test public void recoverAfterTruncate() throws Exception {
+        LogFile log = new LogFile(logName, SEGMENT_SIZE);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        fill(log, tid);
+        log.logCommit(tid);
+        log.logCheckpoint();
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        fill(log, loser);
+        log.force();
+        long end = log.getCurrentLSN();
+
+        LogFile reopened = new LogFile(logName, SEGMENT_SIZE);
+        int records = reopened.getTotalRecords();
+        reopened.recover();
+        assertEquals(records + 1, reopened.getTotalRecords()); // loser's ABORT
+        assertTrue(reopened.getCurrentLSN() > end);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
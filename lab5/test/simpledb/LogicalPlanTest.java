@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 20000;
+  private static final int MAX_VALUE = 100000;
+
+  private ArrayList<ArrayList<Integer>> tuples;
+  private HashMap<String, TableStats> stats;
+  private TransactionId tid;
+
+  /**
+   * Create a B+ tree table "bt", with fields c0 and c1, keyed on c0
+   */
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+    BTreeFile bt = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(bt, "bt");
+    stats = new HashMap<String, TableStats>();
+    stats.put("bt", new TableStats(bt.getId(), 1000));
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private DbIterator plan(String sql) throws Exception {
+    return new Parser().generateLogicalPlan(tid, sql).physicalPlan(tid, stats, false);
+  }
+
+  /** @return the scan at the bottom of a plan over one table */
+  private static DbIterator scanOf(DbIterator plan) {
+    while (plan instanceof Operator) {
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    return plan;
+  }
+
+  /** @return the index predicate of the plan's scan, or null if it is a SeqScan */
+  private static IndexPredicate indexPredicateOf(DbIterator plan) {
+    DbIterator scan = scanOf(plan);
+    return scan instanceof BTreeScan ? ((BTreeScan) scan).getIndexPredicate() : null;
+  }
+
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for a selective filter on the key field, which is applied by
+   * a BTreeScan
+   */
+  @Test public void indexScanForKeyFilter() throws Exception {
+    DbIterator p = plan("SELECT * FROM bt WHERE bt.c0 < 1000 AND bt.c1 > 50000;");
+    IndexPredicate ipred = indexPredicateOf(p);
+    assertNotNull(ipred);
+    assertEquals(Predicate.Op.LESS_THAN, ipred.getOp());
+    assertEquals(new IntField(1000), ipred.getField());
+
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) < 1000 && t.get(1) > 50000)
+        expected++;
+    }
+    assertEquals(expected, count(p));
+
+    p = plan("SELECT * FROM bt WHERE bt.c0 = 7;");
+    assertEquals(Predicate.Op.EQUALS, indexPredicateOf(p).getOp());
+  }
+
+  /**
+   * Unit test for filters that a full scan applies more cheaply: ones that
+   * select most of the table, and ones on other fields
+   */
+  @Test public void seqScanOtherwise() throws Exception {
+    assertNull(indexPredicateOf(plan("SELECT * FROM bt WHERE bt.c0 > 1000;")));
+    assertNull(indexPredicateOf(plan("SELECT * FROM bt WHERE bt.c1 < 1000;")));
+    assertNull(indexPredicateOf(plan("SELECT * FROM bt WHERE bt.c0 <> 1000;")));
+  }
+
+  /**
+   * Unit test for an equality join of two index scans of the join key,
+   * which is merged, and costed as a merge rather than as a hash join
+   */
+  @Test public void mergeJoinOfIndexScans() throws Exception {
+    String sql = "SELECT * FROM bt b1, bt b2 WHERE b1.c0 = b2.c0"
+        + " AND b1.c0 < 1000 AND b2.c0 < 2000;";
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    DbIterator p = lp.physicalPlan(tid, stats, false);
+    while (!(p instanceof SortMergeJoin)) {
+      assertTrue(p instanceof Operator);
+      p = ((Operator) p).getChildren()[0];
+    }
+    assertTrue(lp.isScannedInOrder("b1", "b1.c0"));
+    assertFalse(lp.isScannedInOrder("b1", "b1.c1"));
+
+    JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    LogicalJoinNode equals = new LogicalJoinNode("b1", "b2", "c0", "c0",
+        Predicate.Op.EQUALS);
+    assertEquals(100 + 200 + 50000 + 100000,
+        jo.estimateJoinCost(equals, 50000, 100000, 100, 200), 0.0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogicalPlanTest.class);
+  }
+}
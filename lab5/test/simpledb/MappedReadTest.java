@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedReadTest extends SimpleDbTestBase {
+
+    /**
+     * Pages read through the memory mapping of a HeapFile are the same as
+     * pages read through its channel.
+     */
+    @Test public void heapFileMatchesChannel() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3 + 10, null, null);
+        for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+            hf.setMemoryMapped(false);
+            byte[] expected = hf.readPage(pid).getPageData();
+            hf.setMemoryMapped(true);
+            assertArrayEquals(expected, hf.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * A page written after the file was mapped is read from a new mapping.
+     */
+    @Test public void heapFileRemapsOnGrowth() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        hf.setMemoryMapped(true);
+        HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        HeapPage appended = new HeapPage(new HeapPageId(hf.getId(), 1), first.getPageData());
+        hf.writePage(appended);
+        HeapPage read = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertEquals(0, read.getNumEmptySlots());
+        assertArrayEquals(first.getPageData(), read.getPageData());
+    }
+
+    /**
+     * A page created from a buffer reads it in place, and copies it on its
+     * first write instead of writing to it.
+     */
+    @Test public void bufferPageCopiesOnWrite() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] bytes = hf.readPage(pid).getPageData();
+        HeapPage page = new HeapPage(pid, ByteBuffer.wrap(bytes));
+        assertEquals(0, page.getNumEmptySlots());
+
+        bytes[0] = (byte) 0xfe; // frees slot 0 under the page
+        assertEquals(1, page.getNumEmptySlots());
+
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals((byte) 0xfe, bytes[0]);
+        assertEquals(1, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Internal and leaf pages read through the memory mapping of a
+     * BTreeFile are the same as pages read from the file.
+     */
+    @Test public void btreeFileMatchesStream() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        BTreePageId rootId = rootPtr.getRootId();
+        assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+        byte[] expected = bf.readPage(rootId).getPageData();
+        bf.setMemoryMapped(true);
+        BTreeInternalPage root = (BTreeInternalPage) bf.readPage(rootId);
+        assertArrayEquals(expected, root.getPageData());
+
+        Iterator<BTreeEntry> it = root.iterator();
+        while (it.hasNext()) {
+            BTreePageId leaf = it.next().getRightChild();
+            bf.setMemoryMapped(false);
+            expected = bf.readPage(leaf).getPageData();
+            bf.setMemoryMapped(true);
+            assertArrayEquals(expected, bf.readPage(leaf).getPageData());
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedReadTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for an OrderBy over more tuples than its budget, so that it
+   * writes sorted runs and merges them, in one pass or in two
+   */
+  @Test public void externalSort() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+    TransactionId tid = new TransactionId();
+    for (boolean asc : new boolean[] { true, false }) {
+      for (int budget : new int[] { 100, 10 }) {
+        OrderBy inMemory = new OrderBy(0, asc, new SeqScan(tid, table.getId()));
+        OrderBy op = new OrderBy(0, asc, new SeqScan(tid, table.getId()), budget);
+        inMemory.open();
+        op.open();
+        // both sorts are stable, so ties come out in the same order
+        TestUtil.compareDbIterators(inMemory, op);
+        inMemory.rewind();
+        op.rewind();
+        TestUtil.compareDbIterators(inMemory, op);
+        inMemory.close();
+        op.close();
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for an external sort on a string field
+   */
+  @Test public void externalSortStrings() throws Exception {
+    Object[] data = new Object[2 * 500];
+    for (int i = 0; i < 500; i++) {
+      data[2 * i] = "s" + ((i * 37) % 101);
+      data[2 * i + 1] = i;
+    }
+    OrderBy inMemory = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), 7);
+    inMemory.open();
+    op.open();
+    TestUtil.compareDbIterators(inMemory, op);
+    inMemory.close();
+    op.close();
+  }
+
+  /**
+   * Unit test that reopening an OrderBy sorts its child again, rather than
+   * adding its tuples to the ones already sorted
+   */
+  @Test public void reopen() throws Exception {
+    for (int budget : new int[] { OrderBy.MAX_TUPLES, 3 }) {
+      OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2,
+          new int[] { 3, 1, 1, 2, 2, 3, 5, 4, 4, 5 }), budget);
+      op.open();
+      assertEquals(5, count(op));
+      op.close();
+      op.open();
+      assertEquals(5, count(op));
+      assertTrue(TestUtil.checkExhausted(op));
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for an OrderBy whose child aborts after runs were written:
+   * the runs must be deleted, though the OrderBy is never closed
+   */
+  @Test public void childAborts() throws Exception {
+    int before = TestUtil.countSpillFiles();
+    OrderBy op = new OrderBy(0, true, new TestUtil.AbortingScan(0, 1000, 2, 100), 10);
+    try {
+      op.open();
+      fail("expected TransactionAbortedException");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+    assertEquals(before, TestUtil.countSpillFiles());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final java.util.function.Predicate<PageId> ANY = pid -> true;
+
+    private static HeapPageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * LRU evicts the page that was referenced least recently.
+     */
+    @Test public void lru() {
+        ReplacementPolicy p = new LruReplacementPolicy();
+        p.pageAccessed(page(0));
+        p.pageAccessed(page(1));
+        p.pageAccessed(page(2));
+        p.pageAccessed(page(0));
+        assertEquals(page(1), p.chooseVictim(ANY));
+
+        p.pageRemoved(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+        assertEquals(page(0), p.chooseVictim(pid -> !pid.equals(page(2))));
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clock() {
+        ReplacementPolicy p = new ClockReplacementPolicy(3);
+        p.pageAccessed(page(0));
+        p.pageAccessed(page(1));
+        p.pageAccessed(page(2));
+        // every bit is set: the first sweep clears them and page 0 goes
+        assertEquals(page(0), p.chooseVictim(ANY));
+        p.pageRemoved(page(0));
+
+        p.pageAccessed(page(3));
+        p.pageAccessed(page(1));
+        // page 1 was referenced again, page 2 was not
+        assertEquals(page(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * LRU-2 prefers pages referenced only once over repeatedly used pages,
+     * even if the single-use pages are more recent.
+     */
+    @Test public void lru2() {
+        ReplacementPolicy p = new LruKReplacementPolicy(2, 10);
+        p.pageAccessed(page(0));
+        p.pageAccessed(page(0));
+        p.pageAccessed(page(1));
+        p.pageAccessed(page(2));
+        assertEquals(page(1), p.chooseVictim(ANY));
+
+        // retained history: page 1 comes back and is referenced again
+        p.pageRemoved(page(1));
+        p.pageAccessed(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+    }
+
+    @Test public void nothingEvictable() {
+        String[] names = { "lru", "clock", "lru-2" };
+        for (String name : names) {
+            ReplacementPolicy p = ReplacementPolicy.create(name, 4);
+            assertNull(p.chooseVictim(ANY));
+            p.pageAccessed(page(0));
+            assertNull(p.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * A buffer pool keeps hot pages resident under LRU.
+     */
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = new BufferPool(2, new LruReplacementPolicy());
+        TransactionId tid = new TransactionId();
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(hf.getId(), 1);
+        HeapPageId p2 = new HeapPageId(hf.getId(), 2);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY); // evicts p1
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertEquals(2, bp.getHitCount());
+        assertEquals(3, bp.getMissCount());
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertTrue(bp.getMissCount() == 4);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
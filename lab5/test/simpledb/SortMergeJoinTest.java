@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  private HeapFile left;
+  private HeapFile right;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    // few distinct keys, so every key has a run of tuples on each side
+    left = SystemTestUtil.createRandomHeapFile(2, 300, 40, null, null);
+    right = SystemTestUtil.createRandomHeapFile(3, 200, 40, null, null);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return the rows of it, as strings, sorted */
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext()) {
+      rows.add(it.next().toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private void checkJoin(Predicate.Op op, DbIterator l1, DbIterator r1,
+      DbIterator l2, DbIterator r2) throws Exception {
+    JoinPredicate p = new JoinPredicate(0, op, 1);
+    Join nl = new Join(p, l1, r1);
+    nl.open();
+    ArrayList<String> expected = sortedRows(nl);
+    nl.close();
+
+    SortMergeJoin op2 = new SortMergeJoin(p, l2, r2);
+    op2.open();
+    assertEquals(op.toString(), expected, sortedRows(op2));
+    op2.rewind();
+    assertEquals(op.toString(), expected, sortedRows(op2));
+    op2.close();
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() with each predicate it handles,
+   * on unsorted inputs
+   */
+  @Test public void allPredicates() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      checkJoin(op, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()),
+          new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin over BTreeScans of the join keys, which
+   * are not sorted again
+   */
+  @Test public void sortedInputs() throws Exception {
+    BTreeFile l = BTreeUtility.createRandomBTreeFile(2, 300, 40, null, null, 0);
+    BTreeFile r = BTreeUtility.createRandomBTreeFile(3, 200, 40, null, null, 1);
+    BTreeScan ls = new BTreeScan(tid, l.getId(), "l", null);
+    BTreeScan rs = new BTreeScan(tid, r.getId(), "r", null);
+    assertTrue(SortMergeJoin.isSorted(ls, 0));
+    assertTrue(SortMergeJoin.isSorted(rs, 1));
+    assertFalse(SortMergeJoin.isSorted(rs, 0));
+    assertFalse(SortMergeJoin.isSorted(new SeqScan(tid, left.getId()), 0));
+
+    checkJoin(Predicate.Op.EQUALS,
+        new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r"), ls, rs);
+    checkJoin(Predicate.Op.GREATER_THAN,
+        new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r"),
+        new BTreeScan(tid, l.getId(), "l", null), new BTreeScan(tid, r.getId(), "r", null));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -190,6 +190,46 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * @return the number of SpillFiles in the temporary directory
+     */
+    public static int countSpillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        int n = 0;
+        for (String name : names) {
+            if (name.startsWith("spill") && name.endsWith(".dat")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Mock scan that throws TransactionAbortedException after returning
+     * 'rows' of the tuples of a MockScan, as a child aborted by a deadlock.
+     */
+    public static class AbortingScan extends MockScan {
+        private final int rows;
+        private int read;
+
+        public AbortingScan(int low, int high, int width, int rows) {
+            super(low, high, width);
+            this.rows = rows;
+        }
+
+        public void open() {
+            super.open();
+            read = 0;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (read++ == rows) {
+                throw new TransactionAbortedException();
+            }
+            return super.next();
+        }
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
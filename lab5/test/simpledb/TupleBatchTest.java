@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Checks that operators return the same rows through nextBatch() as
+ * through next().  Each plan is built twice, and the batch copy is read
+ * through an Unbatcher.
+ */
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // 3000 rows span several batches; few distinct keys make many matches
+        left = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null);
+        right = SystemTestUtil.createRandomHeapFile(2, 200, 50, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void assertSameRows(DbIterator expected, BatchIterator actual) throws Exception {
+        DbIterator unbatched = new Unbatcher(actual);
+        expected.open();
+        unbatched.open();
+        TestUtil.compareDbIterators(expected, unbatched);
+        expected.close();
+        unbatched.close();
+    }
+
+    private Filter filter(HeapFile f) {
+        return new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20)),
+                new SeqScan(tid, f.getId()));
+    }
+
+    private Project project(DbIterator child) {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, child);
+    }
+
+    /**
+     * Unit test for SeqScan.nextBatch()
+     */
+    @Test public void seqScan() throws Exception {
+        assertSameRows(new SeqScan(tid, left.getId()), new SeqScan(tid, left.getId()));
+    }
+
+    /**
+     * Unit test for Filter.nextBatch() and Project.nextBatch()
+     */
+    @Test public void filterProject() throws Exception {
+        assertSameRows(project(filter(left)), project(filter(left)));
+    }
+
+    /**
+     * Unit test for HashEquiJoin.nextBatch()
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertSameRows(
+                new HashEquiJoin(p, new SeqScan(tid, right.getId()), filter(left)),
+                new HashEquiJoin(p, new SeqScan(tid, right.getId()), filter(left)));
+    }
+
+    /**
+     * Unit test for Aggregate over a batch child, and Aggregate.nextBatch()
+     */
+    @Test public void aggregate() throws Exception {
+        assertSameRows(new Aggregate(filter(left), 2, 0, Aggregator.Op.SUM),
+                new Aggregate(filter(left), 2, 0, Aggregator.Op.SUM));
+        assertSameRows(new Aggregate(filter(left), 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT),
+                new Aggregate(filter(left), 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+    }
+
+    /**
+     * Unit test for Batcher: a tuple-at-a-time child is split into full
+     * batches.
+     */
+    @Test public void batcher() throws Exception {
+        Batcher b = new Batcher(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, right.getId()), new SeqScan(tid, left.getId())));
+        b.open();
+        int rows = 0;
+        boolean partial = false;
+        TupleBatch batch;
+        while ((batch = b.nextBatch()) != null) {
+            // only the last batch may be short
+            assertTrue(!partial);
+            partial = batch.size() < TupleBatch.MAX_ROWS;
+            rows += batch.size();
+        }
+        b.close();
+
+        DbIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, right.getId()), new SeqScan(tid, left.getId()));
+        join.open();
+        int expected = 0;
+        while (join.hasNext()) {
+            join.next();
+            expected++;
+        }
+        join.close();
+        assertEquals(expected, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
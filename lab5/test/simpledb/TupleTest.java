@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +30,39 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for tuples that hold their values as ints: getInt and
+     * getField agree, setField keeps them in step, and joining two of them
+     * with setFields stays unboxed.
+     */
+    @Test public void intBackedFields() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Tuple tup = new Tuple(td, new int[] { -1, 7 });
+        assertTrue(tup.isIntBacked());
+        assertEquals(-1, tup.getInt(0));
+        assertEquals(new IntField(7), tup.getField(1));
+
+        tup.setField(1, new IntField(37));
+        assertEquals(37, tup.getInt(1));
+        assertEquals(new IntField(37), tup.getField(1));
+        assertTrue(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(36)).filter(tup));
+
+        Tuple joined = new Tuple(TupleDesc.merge(td, td));
+        joined.setFields(tup, new Tuple(td, new int[] { 2, 3 }));
+        assertTrue(joined.isIntBacked());
+        assertEquals(new IntField(-1), joined.getField(0));
+        assertEquals(3, joined.getInt(3));
+        assertTrue(!new JoinPredicate(1, Predicate.Op.LESS_THAN, 0).filter(joined, tup));
+
+        Tuple boxed = new Tuple(td);
+        boxed.setField(0, new IntField(5));
+        boxed.setField(1, new IntField(6));
+        joined.setFields(boxed, tup);
+        assertTrue(!joined.isIntBacked());
+        assertEquals(new IntField(5), joined.getField(0));
+        assertEquals(37, joined.getInt(3));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
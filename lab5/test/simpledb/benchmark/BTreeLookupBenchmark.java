@@ -0,0 +1,101 @@
+package simpledb.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures point lookups through BTreeFile.indexIterator on a large tree,
+ * with BTreeFile.readPage doing positional reads on a cached FileChannel
+ * and with the old read path, which opened a stream for every page and
+ * skipped from the start of the file to the page.  The buffer pool is kept
+ * small so most lookups read their leaf page from the file.
+ * <p>
+ * Usage: ant runbench -Dbench=BTreeLookupBenchmark
+ *        [-Dargs="keys lookups poolPages"]
+ */
+public class BTreeLookupBenchmark {
+
+    /** A BTreeFile that reads pages the way BTreeFile.readPage did before. */
+    private static class StreamBTreeFile extends BTreeFile {
+        StreamBTreeFile(BTreeFile bf) {
+            super(bf.getFile(), bf.keyField(), bf.getTupleDesc());
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            BTreePageId id = (BTreePageId) pid;
+            try {
+                BufferedInputStream bis = new BufferedInputStream(new FileInputStream(getFile()));
+                try {
+                    if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+                        byte[] buf = new byte[BTreeRootPtrPage.getPageSize()];
+                        bis.read(buf, 0, buf.length);
+                        return new BTreeRootPtrPage(id, buf);
+                    }
+                    byte[] buf = new byte[BufferPool.getPageSize()];
+                    bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.pageNumber() - 1) * buf.length);
+                    bis.read(buf, 0, buf.length);
+                    if (id.pgcateg() == BTreePageId.INTERNAL) {
+                        return new BTreeInternalPage(id, buf, keyField());
+                    } else if (id.pgcateg() == BTreePageId.LEAF) {
+                        return new BTreeLeafPage(id, buf, keyField());
+                    }
+                    return new BTreeHeaderPage(id, buf);
+                } finally {
+                    bis.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : BufferPool.DEFAULT_PAGES;
+
+        // keys 1..n, bulk loaded
+        BTreeFile channel = BTreeUtility.createBTreeFile(2, keys, null, null, 0);
+        BTreeFile stream = new StreamBTreeFile(channel);
+        System.out.printf("%d keys, %d pages, %d lookups, pool=%d pages%n",
+                keys, channel.numPages(), lookups, poolPages);
+        System.out.printf("%-10s %14s %10s%n", "readPage", "lookups/s", "misses");
+
+        run(stream, keys, lookups / 10, poolPages); // warm up the page cache and the JIT
+        run(channel, keys, lookups / 10, poolPages);
+        report("stream", run(stream, keys, lookups, poolPages));
+        report("channel", run(channel, keys, lookups, poolPages));
+    }
+
+    private static void report(String name, double[] result) {
+        System.out.printf("%-10s %14.0f %10.0f%n", name, result[0], result[1]);
+    }
+
+    /** @return lookups per second and buffer pool misses */
+    private static double[] run(BTreeFile bf, int keys, int lookups, int poolPages) throws Exception {
+        Database.getCatalog().addTable(bf, "btree");
+        Database.resetBufferPool(poolPages);
+        Random rand = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            IntField key = new IntField(1 + rand.nextInt(keys));
+            DbFileIterator it = bf.indexIterator(t.getId(),
+                    new IndexPredicate(Predicate.Op.EQUALS, key));
+            it.open();
+            if (!it.hasNext() || !it.next().getField(0).equals(key)) {
+                throw new RuntimeException("key " + key + " not found");
+            }
+            it.close();
+            t.commit();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new double[] { lookups / seconds, Database.getBufferPool().getMissCount() };
+    }
+}
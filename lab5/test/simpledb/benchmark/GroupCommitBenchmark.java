@@ -0,0 +1,70 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+
+import simpledb.*;
+
+/**
+ * Measures commit throughput with and without group commit.  Each client
+ * thread runs empty transactions (BEGIN, COMMIT) back to back, so the cost
+ * of a commit is dominated by forcing the log.
+ * <p>
+ * Usage: ant runbench -Dbench=GroupCommitBenchmark
+ *        [-Dargs="commitsPerThread waitMicros batch"]
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long waitMicros = args.length > 1 ? Long.parseLong(args[1]) : LogFile.DEFAULT_GROUP_COMMIT_WAIT_MICROS;
+        int batch = args.length > 2 ? Integer.parseInt(args[2]) : LogFile.DEFAULT_GROUP_COMMIT_BATCH;
+
+        System.out.printf("%d commits per thread, group commit wait=%dus batch=%d%n",
+                commits, waitMicros, batch);
+        System.out.printf("%8s %14s %14s %10s%n", "threads", "single c/s", "group c/s", "commits/force");
+        for (int threads : THREADS) {
+            Database.getLogFile().setGroupCommit(false, 0, 1);
+            double single = run(threads, commits)[0];
+            Database.getLogFile().setGroupCommit(true, waitMicros, batch);
+            double[] group = run(threads, commits);
+            System.out.printf("%8d %14.0f %14.0f %10.1f%n", threads, single, group[0], group[1]);
+        }
+    }
+
+    /** @return commits per second and commits per log force */
+    private static double[] run(int threads, final int commits) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        ArrayList<Thread> clients = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread th = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        for (int c = 0; c < commits; c++) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            t.commit();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            th.start();
+            clients.add(th);
+        }
+        long forces = Database.getLogFile().getForceCount();
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread th : clients) {
+            th.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = (long) threads * commits;
+        forces = Database.getLogFile().getForceCount() - forces;
+        return new double[] { total / seconds, (double) total / Math.max(1, forces) };
+    }
+}
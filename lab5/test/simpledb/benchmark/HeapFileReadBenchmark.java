@@ -0,0 +1,100 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the page read throughput of HeapFile.readPage, which does
+ * positional reads on a cached FileChannel, with the old read path, which
+ * opened a RandomAccessFile, seeked and read for every page.  Each client
+ * thread scans the whole table once per round straight from the file,
+ * bypassing the buffer pool, so the file is served from the OS page cache
+ * and the cost measured is that of the read path itself.
+ * <p>
+ * Usage: ant runbench -Dbench=HeapFileReadBenchmark
+ *        [-Dargs="rows rounds"]
+ */
+public class HeapFileReadBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    /** Reads one page the way HeapFile.readPage did before. */
+    private static Page readWithRandomAccessFile(HeapFile hf, int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = HeapPage.createEmptyPageData();
+        RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r");
+        try {
+            raf.seek((long) pgNo * pageSize);
+            raf.read(data, 0, data.length);
+        } finally {
+            raf.close(); // the old code leaked it, which runs out of files here
+        }
+        return new HeapPage(new HeapPageId(hf.getId(), pgNo), data);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 504 * 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        File file = hf.getFile();
+        file.deleteOnExit();
+        int pages = hf.numPages();
+
+        System.out.printf("%d pages, %d rounds of concurrent scans%n", pages, rounds);
+        System.out.printf("%8s %16s %16s%n", "threads", "raf pages/s", "channel pages/s");
+        run(hf, 1, 1, true); // warm up the page cache and the JIT
+        run(hf, 1, 1, false);
+        for (int threads : THREADS) {
+            double raf = run(hf, threads, rounds, true);
+            double channel = run(hf, threads, rounds, false);
+            System.out.printf("%8d %16.0f %16.0f%n", threads, raf, channel);
+        }
+    }
+
+    /** @return pages read per second over all threads */
+    private static double run(final HeapFile hf, int threads, final int rounds,
+            final boolean oldPath) throws Exception {
+        final int pages = hf.numPages();
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        final AtomicLong read = new AtomicLong();
+        ArrayList<Thread> clients = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread th = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        for (int r = 0; r < rounds; r++) {
+                            for (int pgNo = 0; pgNo < pages; pgNo++) {
+                                if (oldPath) {
+                                    readWithRandomAccessFile(hf, pgNo);
+                                } else {
+                                    hf.readPage(new HeapPageId(hf.getId(), pgNo));
+                                }
+                            }
+                            read.addAndGet(pages);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            th.start();
+            clients.add(th);
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread th : clients) {
+            th.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return read.get() / seconds;
+    }
+}
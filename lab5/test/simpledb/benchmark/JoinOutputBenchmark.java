@@ -0,0 +1,93 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the output throughput of HashEquiJoin and Join, building a new
+ * Tuple for every result and filling one reused Tuple, see
+ * HashEquiJoin#setReuseOutput.  Both inputs are scanned from a TupleIterator
+ * over tuples already in memory, so the time measured is that of the join
+ * and its output tuples.  The join key has few distinct values so each
+ * input tuple matches many others.
+ * <p>
+ * Usage: ant runbench -Dbench=JoinOutputBenchmark
+ *        [-Dargs="rows columns keys rounds"]
+ */
+public class JoinOutputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        TupleDesc td = Utility.getTupleDesc(columns);
+        ArrayList<Tuple> left = tuples(td, rows, keys, 1);
+        ArrayList<Tuple> right = tuples(td, rows, keys, 2);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        System.out.printf("%d x %d rows, %d columns, %d keys%n", rows, rows, columns, keys);
+        System.out.printf("%-14s %16s %16s%n", "join", "new rows/s", "reused rows/s");
+        run(p, td, left, right, true, false, 1); // warm up the JIT
+        run(p, td, left, right, true, true, 1);
+        run(p, td, left, right, false, false, 1);
+        run(p, td, left, right, false, true, 1);
+        System.out.printf("%-14s %16.0f %16.0f%n", "HashEquiJoin",
+                run(p, td, left, right, true, false, rounds),
+                run(p, td, left, right, true, true, rounds));
+        System.out.printf("%-14s %16.0f %16.0f%n", "Join",
+                run(p, td, left, right, false, false, rounds),
+                run(p, td, left, right, false, true, rounds));
+    }
+
+    private static ArrayList<Tuple> tuples(TupleDesc td, int rows, int keys, long seed) {
+        Random rand = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int r = 0; r < rows; r++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(rand.nextInt(keys)));
+            for (int i = 1; i < td.numFields(); i++) {
+                t.setField(i, new IntField(rand.nextInt()));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** @return result rows per second */
+    private static double run(JoinPredicate p, TupleDesc td, ArrayList<Tuple> left,
+            ArrayList<Tuple> right, boolean hash, boolean reuse, int rounds) throws Exception {
+        long rows = 0;
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            DbIterator l = new TupleIterator(td, left);
+            DbIterator rt = new TupleIterator(td, right);
+            DbIterator join;
+            if (hash) {
+                HashEquiJoin j = new HashEquiJoin(p, l, rt);
+                j.setReuseOutput(reuse);
+                join = j;
+            } else {
+                Join j = new Join(p, l, rt);
+                j.setReuseOutput(reuse);
+                join = j;
+            }
+            join.open();
+            int last = td.numFields() * 2 - 1;
+            while (join.hasNext()) {
+                checksum += ((IntField) join.next().getField(last)).getValue();
+                rows++;
+            }
+            join.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (checksum == 42) {
+            System.out.println(); // keep the checksum live
+        }
+        return rows / seconds;
+    }
+}
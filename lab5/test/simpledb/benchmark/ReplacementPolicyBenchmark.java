@@ -0,0 +1,56 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares buffer pool hit rates of the replacement policies on the DBLP
+ * tables in dataset/.  The workload interleaves a sequential scan of
+ * paperauths with random point reads over a hot set of venues pages, which
+ * is the access pattern that makes plain LRU evict hot pages.
+ * <p>
+ * Usage: ant runbench -Dbench=ReplacementPolicyBenchmark
+ *        [-Dargs="poolPages hotPages rounds"]
+ */
+public class ReplacementPolicyBenchmark {
+
+    private static final String[] POLICIES = { "lru", "clock", "lru-2" };
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : BufferPool.DEFAULT_PAGES;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        Database.getCatalog().loadSchema("dataset/dblp_simpledb.schema");
+        HeapFile scanned = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        HeapFile hot = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("venues"));
+        hotPages = Math.min(hotPages, hot.numPages());
+
+        System.out.printf("pool=%d pages, scan=%d pages, hot set=%d pages, rounds=%d%n",
+                poolPages, scanned.numPages(), hotPages, rounds);
+        System.out.printf("%-8s %10s %10s %9s %8s%n", "policy", "hits", "misses", "hit rate", "ms");
+
+        for (String name : POLICIES) {
+            BufferPool bp = new BufferPool(poolPages, ReplacementPolicy.create(name, poolPages));
+            Random rand = new Random(42);
+            long start = System.currentTimeMillis();
+            for (int r = 0; r < rounds; r++) {
+                TransactionId tid = new TransactionId();
+                for (int pgNo = 0; pgNo < scanned.numPages(); pgNo++) {
+                    bp.getPage(tid, new HeapPageId(scanned.getId(), pgNo), Permissions.READ_ONLY);
+                    int hotNo = rand.nextInt(hotPages);
+                    bp.getPage(tid, new HeapPageId(hot.getId(), hotNo), Permissions.READ_ONLY);
+                }
+                bp.transactionComplete(tid);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            long hits = bp.getHitCount();
+            long misses = bp.getMissCount();
+            System.out.printf("%-8s %10d %10d %8.2f%% %8d%n", name, hits, misses,
+                    100.0 * hits / (hits + misses), elapsed);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests rollback and crash recovery with a STEAL/NO-FORCE buffer pool.  A
+ * crash is simulated by dropping the Database instance, with whatever dirty
+ * pages its buffer pool held, and opening the same table and log again.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+
+    /** Forgets all in-memory state and reopens the table, like a restart. */
+    private static HeapFile crash(HeapFile f) {
+        File file = f.getFile();
+        Database.reset();
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        return reopened;
+    }
+
+    /** Counts the tuples in the table as seen by a new transaction. */
+    private static int count(HeapFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        int n = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            n++;
+        }
+        ss.close();
+        t.commit();
+        return n;
+    }
+
+    /** Deletes the first n tuples of the table on behalf of t. */
+    private static void deleteTuples(HeapFile f, Transaction t, int n) throws Exception {
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        ss.open();
+        while (ss.hasNext() && victims.size() < n) {
+            victims.add(ss.next());
+        }
+        ss.close();
+        for (Tuple tup : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+    }
+
+    /**
+     * An abort undoes the pages that were stolen from the buffer pool
+     * while the transaction ran.
+     */
+    @Test public void abortAfterSteal() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        Database.resetBufferPool(2);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteTuples(f, t, 504 * 6);
+        t.transactionComplete(true);
+
+        assertEquals(504 * 6, count(f));
+    }
+
+    /**
+     * A page flushed before its transaction commits still takes the
+     * committed version as its before image, so a later abort does not
+     * restore the page as it was before the committed change.
+     */
+    @Test public void abortAfterFlushedCommit() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2 - 1, null, null);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        EvictionTest.insertRow(f, t1);
+        Database.getBufferPool().flushAllPages();
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        deleteTuples(f, t2, 504 * 2);
+        t2.transactionComplete(true);
+
+        assertEquals(504 * 2, count(f));
+        Transaction t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * A commit does not write the dirty pages, but recovery redoes them.
+     */
+    @Test public void commitSurvivesCrash() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2 - 1, null, null);
+        HeapPageId last = new HeapPageId(f.getId(), 1);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+        assertEquals(1, ((HeapPage) f.readPage(last)).getNumEmptySlots());
+
+        f = crash(f);
+        Database.getLogFile().recover();
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * Recovery undoes the flushed changes of a transaction that was running
+     * at the crash, and keeps those of committed transactions.
+     */
+    @Test public void loserUndoneAfterCrash() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+
+        Transaction committed = new Transaction();
+        committed.start();
+        EvictionTest.insertRow(f, committed);
+        committed.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        deleteTuples(f, loser, 504 * 2);
+        Database.getBufferPool().flushAllPages();
+
+        f = crash(f);
+        Database.getLogFile().recover();
+        assertEquals(504 * 3 + 1, count(f));
+
+        // a second recovery does not undo the loser again
+        f = crash(f);
+        Database.getLogFile().recover();
+        assertEquals(504 * 3 + 1, count(f));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}